@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-field tag round trips, raw and run-length encoded, plus a sixteen-tile delta for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DungeonFieldCodecBenchmark {
+	@Param({"256", "1024"})
+	public int size;
+	
+	@Param({"true", "false"})
+	public boolean runLengthEncode;
+	
+	private VectorField<DungeonTile> field;
+	private DungeonFieldCodec codec;
+	private MapTagCompound tag;
+	private int edit = 0;
+	
+	@Setup
+	public void setup() {
+		field = new FieldGenerator().withSeed(0x5EEDL).withRoomSize(3, 6).generate(size);
+		codec = new DungeonFieldCodec(field, runLengthEncode);
+		tag = new MapTagCompound();
+		codec.serialize(tag);
+		field.setChangeTracking(true);
+	}
+	
+	@Benchmark
+	public ITagCompound serialize() {
+		return codec.serialize(tag);
+	}
+	
+	@Benchmark
+	public VectorField<DungeonTile> deserialize() {
+		return DungeonFieldCodec.read(tag);
+	}
+	
+	@Benchmark
+	public ITagCompound serializeChanges() {
+		for(int i=0; i<16; i++) {
+			edit = (edit+7919) % (size*size);
+			field.markChanged(edit % size, edit / size);
+		}
+		return codec.serializeChanges(new MapTagCompound());
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end generation cost across map sizes and room-size settings. Every invocation uses the same seed,
+ * so runs are comparable between builds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class FieldGeneratorBenchmark {
+	
+	@Param({"64", "256", "1024", "4096"})
+	public int size;
+	
+	/** "min:max", handed straight to withRoomSize */
+	@Param({"3:6", "3:7", "5:12"})
+	public String roomSize;
+	
+	private int minRoomSize;
+	private int maxRoomSize;
+	
+	@Setup
+	public void setup() {
+		String[] parts = roomSize.split(":");
+		minRoomSize = Integer.parseInt(parts[0]);
+		maxRoomSize = Integer.parseInt(parts[1]);
+	}
+	
+	private FieldGenerator generator() {
+		return new FieldGenerator()
+				.withSeed(0x5EEDL)
+				.withRoomSize(minRoomSize, maxRoomSize);
+	}
+	
+	@Benchmark
+	public VectorField<DungeonTile> generate() {
+		return generator().generate(size);
+	}
+	
+	@Benchmark
+	public PackedTileField generatePacked() {
+		return generator().generatePacked(size);
+	}
+	
+	@Benchmark
+	public PackedTileField generatePackedParallel() {
+		return generator().withPlacement(FieldGenerator.Placement.PARALLEL).generatePacked(size);
+	}
+	
+	/** Spread over 1ms steps, to see what slicing costs on top of generatePacked. */
+	@Benchmark
+	public int generatePackedStepped() {
+		FieldGenerator generator = generator().start(new PackedTileField(size, size));
+		int steps = 1;
+		while(!generator.step(1_000_000L)) steps++;
+		return steps;
+	}
+}
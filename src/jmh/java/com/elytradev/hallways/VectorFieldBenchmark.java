@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The VectorField calls that generation and rendering lean on. get/getOrCreate walk a precomputed
+ * pseudo-random index sequence, so the numbers include cache misses rather than a single hot cell.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorFieldBenchmark {
+	private static final int LOOKUPS = 1024;
+	
+	@Param({"128", "1024"})
+	public int size;
+	
+	private VectorField<DungeonTile> field;
+	private int[] xs = new int[LOOKUPS];
+	private int[] ys = new int[LOOKUPS];
+	
+	/**
+	 * A field for the benchmarks that write to it, rebuilt every iteration so each one starts from the same
+	 * freshly generated dungeon instead of whatever the previous iteration left behind.
+	 */
+	@State(Scope.Thread)
+	public static class Scratch {
+		VectorField<DungeonTile> field;
+		
+		@Setup(Level.Iteration)
+		public void reset(VectorFieldBenchmark benchmark) {
+			field = generate(benchmark.size);
+		}
+	}
+	
+	private static VectorField<DungeonTile> generate(int size) {
+		return new FieldGenerator().withSeed(0x5EEDL).withRoomSize(3, 6).generate(size);
+	}
+	
+	@Setup
+	public void setup() {
+		field = generate(size);
+		Random random = new Random(1L);
+		for(int i=0; i<LOOKUPS; i++) {
+			xs[i] = random.nextInt(size);
+			ys[i] = random.nextInt(size);
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void get(Blackhole bh) {
+		for(int i=0; i<LOOKUPS; i++) {
+			bh.consume(field.get(xs[i], ys[i]));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void getOrCreate(Scratch scratch, Blackhole bh) {
+		for(int i=0; i<LOOKUPS; i++) {
+			bh.consume(scratch.field.getOrCreate(xs[i], ys[i], DungeonTile::new));
+		}
+	}
+	
+	@Benchmark
+	public void visitRect(Blackhole bh) {
+		field.visitRect(0, 0, size, size, (f, x, y) -> bh.consume(f.get(x, y)));
+	}
+	
+	@Benchmark
+	public void visitLine(Blackhole bh) {
+		field.visitLine(0, 0, size-1, size-1, (f, x, y) -> bh.consume(f.get(x, y)));
+		field.visitLine(0, size-1, size-1, 0, (f, x, y) -> bh.consume(f.get(x, y)));
+	}
+	
+	/*
+	 * The forEachCell pair sum up tile types rather than consuming each tile, since a Blackhole belongs to the
+	 * benchmark thread and mustn't be handed to the fork-join workers. The serial one does the same so the two
+	 * stay comparable.
+	 */
+	
+	@Benchmark
+	public long forEachCell() {
+		long[] total = { 0 };
+		field.forEachCell((x, y) -> {
+			DungeonTile tile = field.get(x, y);
+			if (tile!=null) total[0] += tile.type.ordinal();
+		});
+		return total[0];
+	}
+	
+	@Benchmark
+	public long parallelForEachCell() {
+		LongAdder total = new LongAdder(); //Striped per thread, so workers don't fight over one counter
+		field.parallelForEachCell((x, y) -> {
+			DungeonTile tile = field.get(x, y);
+			if (tile!=null) total.add(tile.type.ordinal());
+		});
+		return total.sum();
+	}
+	
+	@Benchmark
+	public long stream() {
+		return field.stream().filter(it -> it.getValue().type==TileType.ROOM).count();
+	}
+	
+	@Benchmark
+	public long parallelStream() {
+		return field.parallelStream().filter(it -> it.getValue().type==TileType.ROOM).count();
+	}
+}
@@ -30,6 +30,12 @@ public enum Cardinal {
 	SOUTH( 0, 1),
 	WEST (-1, 0);
 	
+	/** Same as values(), but without copying the array every call. Don't modify it. */
+	public static final Cardinal[] VALUES = values();
+	private static final Cardinal[] OPPOSITE = { SOUTH, WEST, NORTH, EAST };
+	private static final Cardinal[] CW = { EAST, SOUTH, WEST, NORTH };
+	private static final Cardinal[] CCW = { WEST, NORTH, EAST, SOUTH };
+	
 	private int x;
 	private int y;
 	
@@ -41,36 +47,29 @@ public enum Cardinal {
 	public int xOfs() { return x; }
 	public int yOfs() { return y; }
 	
-	public Cardinal cw() {
-		switch(this) {
-		case NORTH: return EAST;
-		case EAST: return SOUTH;
-		case SOUTH: return WEST;
-		default:
-		case WEST: return NORTH;
-		}
+	/** The bit this direction occupies in a packed exit mask. Matches the "Exits" byte written by DungeonTile. */
+	public int bit() { return 1 << ordinal(); }
+	
+	public Cardinal cw() { return CW[ordinal()]; }
+	public Cardinal ccw() { return CCW[ordinal()]; }
+	public Cardinal opposite() { return OPPOSITE[ordinal()]; }
+	
+	public static Cardinal fromTo(Vec2i from, Vec2i to) {
+		return fromDelta(to.x-from.x, to.y-from.y);
 	}
 	
-	public Cardinal ccw() {
-		switch(this) {
-		case NORTH: return WEST;
-		case EAST: return NORTH;
-		case SOUTH: return EAST;
-		default:
-		case WEST: return SOUTH;
-		}
+	public static Cardinal fromTo(int fromX, int fromY, int toX, int toY) {
+		return fromDelta(toX-fromX, toY-fromY);
 	}
 	
-	public static Cardinal fromTo(Vec2i from, Vec2i to) {
-		boolean we = from.x==to.x;
-		boolean ns = from.y==to.y;
-		if (ns&&we || !ns&&!we) return NORTH; //These vectors are not arranged in cardinal directions
-		
-		if (to.x>from.x) return EAST;
-		if (to.x<from.x) return WEST;
-		if (to.y<from.y) return NORTH;
-		if (to.y>from.y) return SOUTH;
-		
-		return NORTH; //this code *really* shouldn't happen.
+	/**
+	 * Gets the direction of an offset along one axis. Only the sign matters, so any straight-line distance works.
+	 * Offsets along both axes or neither aren't a cardinal direction, and come back as NORTH.
+	 */
+	public static Cardinal fromDelta(int dx, int dy) {
+		if ((dx==0) == (dy==0)) return NORTH; //These vectors are not arranged in cardinal directions
+		if (dx>0) return EAST;
+		if (dx<0) return WEST;
+		return (dy<0) ? NORTH : SOUTH;
 	}
 }
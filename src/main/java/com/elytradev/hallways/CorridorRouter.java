@@ -0,0 +1,235 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.Arrays;
+
+/**
+ * Finds a hallway route around whatever's already built, for when neither L-shaped route between two rooms is
+ * clear. Plain A* over the free tiles of an {@link OccupancyMask}, kept inside a window around the two rooms so
+ * a hopeless search can't wander off across the whole map, and charging extra for every turn so routes come out
+ * as a few straight runs rather than a staircase.
+ * 
+ * <p>All the search arrays are kept and reused from one route to the next, so routing doesn't allocate once the
+ * buffers have grown to fit the largest window seen. Not threadsafe; each generator has its own.
+ */
+final class CorridorRouter {
+	/** Extra cost for changing direction, on top of the step itself */
+	static final int TURN_COST = 2;
+	/**
+	 * Extra cost for running right alongside something already built. Hugging a room's wall uses up the tiles
+	 * other hallways would put their doors on.
+	 */
+	static final int HUG_COST = 1;
+	
+	private static final int[] DX = { 0, 1, 0, -1 };
+	private static final int[] DY = { -1, 0, 1, 0 };
+	
+	//Search state, indexed by (cell*4 + direction we arrived in)
+	private int[] cost = new int[0];
+	private int[] parent = new int[0];
+	private int[] stamp = new int[0];
+	private int generation = 0;
+	
+	private int[] heap = new int[64];
+	private int[] heapKey = new int[64];
+	private int heapSize = 0;
+	
+	private int[] pathX = new int[64];
+	private int[] pathY = new int[64];
+	private int pathLength = 0;
+	
+	/** Search steps taken by the last route, for keeping an eye on cost */
+	private int expanded = 0;
+	
+	public int[] getPathX() { return pathX; }
+	public int[] getPathY() { return pathY; }
+	public int getPathLength() { return pathLength; }
+	public int getExpanded() { return expanded; }
+	
+	/**
+	 * Looks for a route from any free tile against a side of room A to any free tile against a side of room B,
+	 * touching only free tiles. Letting the search pick the doors, rather than fixing them up front, is what gets
+	 * it past rooms whose obvious side is already boxed in by other hallways. On success the route, both door
+	 * tiles included, is in {@link #getPathX()}/{@link #getPathY()}. Nothing is claimed; that's up to the caller.
+	 * 
+	 * @param margin how far outside the box around the two rooms the route may stray
+	 * @return true if a route was found
+	 */
+	public boolean route(OccupancyMask mask, int ax, int ay, int aw, int ah, int bx, int by, int bw, int bh, int margin) {
+		pathLength = 0;
+		expanded = 0;
+		int minX = Math.max(0, Math.min(ax, bx)-margin);
+		int minY = Math.max(0, Math.min(ay, by)-margin);
+		int maxX = Math.min(mask.getWidth()-1, Math.max(ax+aw, bx+bw)+margin);
+		int maxY = Math.min(mask.getHeight()-1, Math.max(ay+ah, by+bh)+margin);
+		if (minX>maxX || minY>maxY) return false;
+		
+		int windowWidth = maxX-minX+1;
+		int windowHeight = maxY-minY+1;
+		int states = windowWidth*windowHeight*4;
+		if (stamp.length<states) {
+			int size = Math.max(states, stamp.length*2);
+			cost = new int[size];
+			parent = new int[size];
+			stamp = new int[size];
+			generation = 0;
+		}
+		generation++;
+		if (generation==0) {
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
+		heapSize = 0;
+		
+		//Every free tile along A's sides is somewhere we could put a door, heading straight out from the wall
+		for(int x=ax; x<ax+aw; x++) {
+			addStart(mask, x, ay-1, 0, minX, minY, maxX, maxY, windowWidth, bx, by, bw, bh);
+			addStart(mask, x, ay+ah, 2, minX, minY, maxX, maxY, windowWidth, bx, by, bw, bh);
+		}
+		for(int y=ay; y<ay+ah; y++) {
+			addStart(mask, ax-1, y, 3, minX, minY, maxX, maxY, windowWidth, bx, by, bw, bh);
+			addStart(mask, ax+aw, y, 1, minX, minY, maxX, maxY, windowWidth, bx, by, bw, bh);
+		}
+		
+		while(heapSize>0) {
+			int key = heapKey[0];
+			int state = pop();
+			int g = cost[state];
+			int cell = state >> 2;
+			int dir = state & 3;
+			int cx = cell % windowWidth + minX;
+			int cy = cell / windowWidth + minY;
+			if (key>g+guess(cx, cy, bx, by, bw, bh)) continue; //Stale heap entry
+			
+			if (isBeside(cx, cy, bx, by, bw, bh)) {
+				unwind(state, windowWidth, minX, minY);
+				return true;
+			}
+			expanded++;
+			
+			for(int d=0; d<4; d++) {
+				if (d==((dir+2) & 3)) continue; //No doubling back
+				int nx = cx+DX[d];
+				int ny = cy+DY[d];
+				if (nx<minX || ny<minY || nx>maxX || ny>maxY) continue;
+				if (mask.isSet(nx, ny)) continue;
+				int next = ((ny-minY)*windowWidth + (nx-minX))*4 + d;
+				int nextCost = g + 1 + ((d==dir) ? 0 : TURN_COST);
+				if (isCrowded(mask, nx, ny, d)) nextCost += HUG_COST;
+				if (stamp[next]==generation && cost[next]<=nextCost) continue;
+				stamp[next] = generation;
+				cost[next] = nextCost;
+				parent[next] = state;
+				push(next, nextCost + guess(nx, ny, bx, by, bw, bh));
+			}
+		}
+		return false;
+	}
+	
+	private void addStart(OccupancyMask mask, int x, int y, int dir, int minX, int minY, int maxX, int maxY, int windowWidth, int bx, int by, int bw, int bh) {
+		if (x<minX || y<minY || x>maxX || y>maxY) return;
+		if (mask.isSet(x, y)) return;
+		int state = ((y-minY)*windowWidth + (x-minX))*4 + dir;
+		stamp[state] = generation;
+		cost[state] = 0;
+		parent[state] = -1;
+		push(state, guess(x, y, bx, by, bw, bh));
+	}
+	
+	/** Is this tile right against one of the room's sides (not a corner)? Those are the tiles a door can go on. */
+	private static boolean isBeside(int x, int y, int bx, int by, int bw, int bh) {
+		if (x>=bx && x<bx+bw) return y==by-1 || y==by+bh;
+		if (y>=by && y<by+bh) return x==bx-1 || x==bx+bw;
+		return false;
+	}
+	
+	/** Walking distance to the ring of tiles around the room. Never more than the distance to an actual door tile. */
+	private static int guess(int x, int y, int bx, int by, int bw, int bh) {
+		int dx = Math.max(0, Math.max((bx-1)-x, x-(bx+bw)));
+		int dy = Math.max(0, Math.max((by-1)-y, y-(by+bh)));
+		return dx+dy;
+	}
+	
+	/** Is there anything built on either side of this tile, looking along the direction of travel? */
+	private static boolean isCrowded(OccupancyMask mask, int x, int y, int dir) {
+		int side = (dir+1) & 3;
+		return mask.isSet(x+DX[side], y+DY[side]) || mask.isSet(x-DX[side], y-DY[side]);
+	}
+	
+	private void unwind(int state, int windowWidth, int minX, int minY) {
+		int length = 0;
+		for(int s=state; s!=-1; s=parent[s]) length++;
+		if (pathX.length<length) {
+			pathX = new int[Math.max(length, pathX.length*2)];
+			pathY = new int[pathX.length];
+		}
+		pathLength = length;
+		for(int s=state; s!=-1; s=parent[s]) {
+			int cell = s >> 2;
+			length--;
+			pathX[length] = cell % windowWidth + minX;
+			pathY[length] = cell / windowWidth + minY;
+		}
+	}
+	
+	private void push(int state, int key) {
+		if (heapSize==heap.length) {
+			heap = Arrays.copyOf(heap, heap.length*2);
+			heapKey = Arrays.copyOf(heapKey, heap.length);
+		}
+		int i = heapSize++;
+		while(i>0) {
+			int up = (i-1) >>> 1;
+			if (heapKey[up]<=key) break;
+			heap[i] = heap[up];
+			heapKey[i] = heapKey[up];
+			i = up;
+		}
+		heap[i] = state;
+		heapKey[i] = key;
+	}
+	
+	private int pop() {
+		int result = heap[0];
+		int last = --heapSize;
+		int state = heap[last];
+		int key = heapKey[last];
+		int i = 0;
+		while(true) {
+			int child = i*2+1;
+			if (child>=last) break;
+			if (child+1<last && heapKey[child+1]<heapKey[child]) child++;
+			if (heapKey[child]>=key) break;
+			heap[i] = heap[child];
+			heapKey[i] = heapKey[child];
+			i = child;
+		}
+		heap[i] = state;
+		heapKey[i] = key;
+		return result;
+	}
+}
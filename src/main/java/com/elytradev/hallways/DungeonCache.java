@@ -0,0 +1,297 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Keeps recently generated dungeons in memory, so a player walking back into the same dungeon doesn't cost a
+ * second generation. Dungeons are keyed by their {@link GenerationSpec}, packed, and handed out as
+ * {@link ReadOnlyTileField}s. Nothing can change one of those, so every caller can share the same one safely;
+ * use {@link ReadOnlyTileField#toVectorField()} for a copy to edit.
+ * 
+ * <p>The cache is bounded by an estimate of how much heap its dungeons take, and throws out the least recently
+ * used ones to stay under it. With soft spill turned on, thrown-out dungeons are held by soft references
+ * instead of being dropped outright, and come back for free if the garbage collector hasn't needed the room.
+ * 
+ * <p>If several threads ask for the same dungeon at once, only one generates it and the rest wait for that.
+ */
+public class DungeonCache {
+	private final long maxWeight;
+	private final Function<GenerationSpec, ? extends ITileField> loader;
+	private boolean softSpill = false;
+	
+	//Everything below is guarded by this
+	private final LinkedHashMap<GenerationSpec, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final HashMap<GenerationSpec, SpilledRef> spilled = new HashMap<>();
+	private final ReferenceQueue<ReadOnlyTileField> collected = new ReferenceQueue<>();
+	private final HashMap<GenerationSpec, CompletableFuture<ReadOnlyTileField>> loading = new HashMap<>();
+	private long weight = 0;
+	private long hits = 0;
+	private long softHits = 0;
+	private long misses = 0;
+	private long collapsed = 0;
+	private long evictions = 0;
+	private long loadNanos = 0;
+	
+	/**
+	 * @param maxWeight roughly how many bytes of dungeon to keep strongly held
+	 */
+	public DungeonCache(long maxWeight) {
+		this(maxWeight, spec -> spec.configure(new FieldGenerator()).generatePacked(spec.getSize()));
+	}
+	
+	/**
+	 * @param maxWeight roughly how many bytes of dungeon to keep strongly held
+	 * @param loader    makes a dungeon on a miss, for example by loading it from a {@link DungeonStore}. May return
+	 *                  null, which isn't cached. PackedTileFields and MappedTileFields are cached as they are,
+	 *                  without copying, so the loader mustn't hold on to them; anything else gets packed first.
+	 */
+	public DungeonCache(long maxWeight, Function<GenerationSpec, ? extends ITileField> loader) {
+		this.maxWeight = maxWeight;
+		this.loader = loader;
+	}
+	
+	/**
+	 * Keeps evicted dungeons around behind soft references until the garbage collector wants the memory.
+	 */
+	public DungeonCache withSoftSpill(boolean softSpill) {
+		synchronized(this) {
+			this.softSpill = softSpill;
+			if (!softSpill) spilled.clear();
+		}
+		return this;
+	}
+	
+	/**
+	 * Gets the dungeon for a spec, generating it if it isn't cached. Blocks if another thread is already
+	 * generating the same one.
+	 * 
+	 * @return the dungeon, or null if the loader gave up
+	 */
+	public ReadOnlyTileField get(GenerationSpec spec) {
+		CompletableFuture<ReadOnlyTileField> pending;
+		CompletableFuture<ReadOnlyTileField> mine = null;
+		synchronized(this) {
+			ReadOnlyTileField cached = lookup(spec);
+			if (cached!=null) return cached;
+			
+			pending = loading.get(spec);
+			if (pending!=null) {
+				collapsed++;
+			} else {
+				misses++;
+				mine = new CompletableFuture<>();
+				loading.put(spec, mine);
+			}
+		}
+		
+		if (mine==null) {
+			try {
+				return pending.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw e;
+			}
+		}
+		
+		ReadOnlyTileField result;
+		long start = System.nanoTime();
+		try {
+			ITileField loaded = loader.apply(spec);
+			result = (loaded==null) ? null : ReadOnlyTileField.of(loaded);
+		} catch (RuntimeException | Error e) {
+			synchronized(this) {
+				loading.remove(spec);
+			}
+			mine.completeExceptionally(e);
+			throw e;
+		}
+		long w = (result==null) ? 0 : weigh(result); //Worked out before locking, so other lookups don't wait on it
+		synchronized(this) {
+			loadNanos += System.nanoTime()-start;
+			loading.remove(spec);
+			if (result!=null) insert(spec, result, w);
+		}
+		mine.complete(result);
+		return result;
+	}
+	
+	/**
+	 * @return the cached dungeon for this spec, or null without generating anything
+	 */
+	public synchronized ReadOnlyTileField getIfPresent(GenerationSpec spec) {
+		return lookup(spec);
+	}
+	
+	public synchronized void invalidate(GenerationSpec spec) {
+		Entry entry = entries.remove(spec);
+		if (entry!=null) weight -= entry.weight;
+		spilled.remove(spec);
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+		spilled.clear();
+		weight = 0;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/** @return the estimated heap use of everything strongly held, in bytes */
+	public synchronized long getWeight() {
+		return weight;
+	}
+	
+	public synchronized Stats getStats() {
+		return new Stats(hits, softHits, misses, collapsed, evictions, loadNanos);
+	}
+	
+	/**
+	 * Rough heap cost of a cached dungeon, in bytes.
+	 */
+	public static long weigh(ReadOnlyTileField field) {
+		return field.weigh();
+	}
+	
+	private ReadOnlyTileField lookup(GenerationSpec spec) {
+		Entry entry = entries.get(spec);
+		if (entry!=null) {
+			hits++;
+			return entry.field;
+		}
+		
+		if (softSpill) {
+			drainCollected();
+			SpilledRef ref = spilled.get(spec);
+			ReadOnlyTileField field = (ref==null) ? null : ref.get();
+			if (field!=null) {
+				spilled.remove(spec);
+				softHits++;
+				insert(spec, field, weigh(field));
+				return field;
+			}
+		}
+		return null;
+	}
+	
+	private void insert(GenerationSpec spec, ReadOnlyTileField field, long w) {
+		if (w>maxWeight) {
+			//Bigger than the whole cache; it can still be spilled, but holding it strongly would flush everything else
+			spill(spec, field);
+			return;
+		}
+		Entry old = entries.put(spec, new Entry(field, w));
+		if (old!=null) weight -= old.weight;
+		weight += w;
+		
+		Iterator<Map.Entry<GenerationSpec, Entry>> it = entries.entrySet().iterator();
+		while(weight>maxWeight && it.hasNext()) {
+			Map.Entry<GenerationSpec, Entry> eldest = it.next();
+			if (eldest.getKey().equals(spec)) continue; //Never throw out what we just put in
+			it.remove();
+			weight -= eldest.getValue().weight;
+			evictions++;
+			spill(eldest.getKey(), eldest.getValue().field);
+		}
+	}
+	
+	private void spill(GenerationSpec spec, ReadOnlyTileField field) {
+		if (!softSpill) return;
+		drainCollected();
+		spilled.put(spec, new SpilledRef(spec, field, collected));
+	}
+	
+	/** Forgets soft references the collector has already cleared */
+	private void drainCollected() {
+		Reference<? extends ReadOnlyTileField> ref;
+		while((ref = collected.poll())!=null) {
+			SpilledRef spilledRef = (SpilledRef) ref;
+			spilled.remove(spilledRef.spec, spilledRef);
+		}
+	}
+	
+	private static class Entry {
+		final ReadOnlyTileField field;
+		final long weight;
+		
+		Entry(ReadOnlyTileField field, long weight) {
+			this.field = field;
+			this.weight = weight;
+		}
+	}
+	
+	private static class SpilledRef extends SoftReference<ReadOnlyTileField> {
+		final GenerationSpec spec;
+		
+		SpilledRef(GenerationSpec spec, ReadOnlyTileField field, ReferenceQueue<ReadOnlyTileField> queue) {
+			super(field, queue);
+			this.spec = spec;
+		}
+	}
+	
+	public static class Stats {
+		public final long hits;
+		/** Found among the soft-spilled dungeons, which counts as a hit too */
+		public final long softHits;
+		public final long misses;
+		/** Requests which waited for another thread's generation instead of starting their own */
+		public final long collapsed;
+		public final long evictions;
+		public final long loadNanos;
+		
+		Stats(long hits, long softHits, long misses, long collapsed, long evictions, long loadNanos) {
+			this.hits = hits;
+			this.softHits = softHits;
+			this.misses = misses;
+			this.collapsed = collapsed;
+			this.evictions = evictions;
+			this.loadNanos = loadNanos;
+		}
+		
+		public double getHitRate() {
+			long total = hits+softHits+misses+collapsed;
+			return (total==0) ? 0 : (hits+softHits+collapsed) / (double)total;
+		}
+		
+		@Override
+		public String toString() {
+			return "hits="+hits+", softHits="+softHits+", misses="+misses+", collapsed="+collapsed
+					+", evictions="+evictions+", load="+(loadNanos/1000000)+"ms";
+		}
+	}
+}
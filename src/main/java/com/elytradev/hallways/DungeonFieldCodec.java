@@ -0,0 +1,255 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Serializes a whole {@code VectorField<DungeonTile>} as a single packed int array, instead of one compound
+ * per tile. Tiles use the {@link PackedTileField} layout, and the array can optionally be run-length encoded,
+ * which shrinks the long empty stretches between rooms down to almost nothing.
+ * 
+ * <p>For a field that's already been sent once, {@link #serializeChanges(ITagCompound)} writes just the tiles
+ * edited since the last sync, using the field's {@link VectorField#setChangeTracking(boolean) change tracking}.
+ * {@link #deserialize(ITagCompound)} applies those on top of what the receiving field already has.
+ * 
+ * <p>Tag layout:
+ * <ul>
+ *   <li>"Width", "Height": ints
+ *   <li>"Encoding": byte, {@link #ENCODING_RAW}, {@link #ENCODING_RLE} or {@link #ENCODING_DELTA}
+ *   <li>"PaletteCount": int, followed by "Palette1".."PaletteN" strings
+ *   <li>"Tiles": int array. Raw is one int per tile in row order; RLE is (run length, packed tile) pairs; delta
+ *       is (y*width+x, packed tile) pairs, with EMPTY meaning the tile was removed.
+ * </ul>
+ */
+public class DungeonFieldCodec implements ITagSerializable {
+	public static final byte ENCODING_RAW = 0;
+	public static final byte ENCODING_RLE = 1;
+	public static final byte ENCODING_DELTA = 2;
+	
+	private VectorField<DungeonTile> field;
+	private boolean runLengthEncode = true;
+	
+	public DungeonFieldCodec(VectorField<DungeonTile> field) {
+		this.field = field;
+	}
+	
+	public DungeonFieldCodec(VectorField<DungeonTile> field, boolean runLengthEncode) {
+		this.field = field;
+		this.runLengthEncode = runLengthEncode;
+	}
+	
+	/**
+	 * @return the field being serialized. After deserializing a tag of a different size, this is a new field.
+	 */
+	public VectorField<DungeonTile> getField() {
+		return field;
+	}
+	
+	/**
+	 * Reads a whole field out of a tag written by this codec.
+	 */
+	public static VectorField<DungeonTile> read(ITagCompound tag) {
+		DungeonFieldCodec codec = new DungeonFieldCodec(DungeonTile.newField(tag.getInteger("Width"), tag.getInteger("Height")));
+		codec.deserialize(tag);
+		return codec.getField();
+	}
+	
+	@Override
+	public ITagCompound serialize(ITagCompound tag) {
+		int width = field.getWidth();
+		int height = field.getHeight();
+		
+		ArrayList<String> palettes = new ArrayList<>();
+		HashMap<String, Integer> paletteIds = new HashMap<>();
+		int[] tiles = new int[width*height];
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) {
+				DungeonTile tile = field.get(x, y);
+				if (tile==null) continue; //Already EMPTY
+				tiles[y*width+x] = pack(tile, palettes, paletteIds);
+			}
+		}
+		
+		writeHeader(tag, palettes);
+		if (runLengthEncode) {
+			tag.setByte("Encoding", ENCODING_RLE);
+			tag.setIntArray("Tiles", encodeRuns(tiles));
+		} else {
+			tag.setByte("Encoding", ENCODING_RAW);
+			tag.setIntArray("Tiles", tiles);
+		}
+		return tag;
+	}
+	
+	/**
+	 * Writes every tile changed since the last call (or since change tracking was turned on), and marks them
+	 * synced. The size of the tag depends on how many tiles changed, not on the size of the field.
+	 * @throws IllegalStateException if the field isn't tracking changes
+	 */
+	public ITagCompound serializeChanges(ITagCompound tag) {
+		if (!field.isTrackingChanges()) throw new IllegalStateException("Field isn't tracking changes; call setChangeTracking(true) on it first");
+		int width = field.getWidth();
+		
+		ArrayList<String> palettes = new ArrayList<>();
+		HashMap<String, Integer> paletteIds = new HashMap<>();
+		int[][] changes = { new int[16] };
+		int[] count = { 0 };
+		field.drainChanges((x, y) -> {
+			DungeonTile tile = field.get(x, y);
+			if (count[0]+2>changes[0].length) changes[0] = Arrays.copyOf(changes[0], changes[0].length*2);
+			changes[0][count[0]++] = y*width+x;
+			changes[0][count[0]++] = (tile==null) ? PackedTileField.EMPTY : pack(tile, palettes, paletteIds);
+		});
+		
+		writeHeader(tag, palettes);
+		tag.setByte("Encoding", ENCODING_DELTA);
+		tag.setIntArray("Tiles", Arrays.copyOf(changes[0], count[0]));
+		return tag;
+	}
+	
+	private void writeHeader(ITagCompound tag, ArrayList<String> palettes) {
+		tag.setInteger("Width", field.getWidth());
+		tag.setInteger("Height", field.getHeight());
+		tag.setInteger("PaletteCount", palettes.size());
+		for(int i=0; i<palettes.size(); i++) {
+			tag.setString("Palette"+(i+1), palettes.get(i));
+		}
+	}
+	
+	/**
+	 * Packs a tile, giving its palette the next free id if it hasn't been seen yet. Ids start at 1, since 0 means
+	 * no palette.
+	 */
+	private static int pack(DungeonTile tile, ArrayList<String> palettes, HashMap<String, Integer> paletteIds) {
+		int paletteId = 0;
+		if (tile.palette!=null) {
+			Integer id = paletteIds.get(tile.palette);
+			if (id==null) {
+				palettes.add(tile.palette);
+				id = palettes.size();
+				paletteIds.put(tile.palette, id);
+			}
+			paletteId = id;
+		}
+		return PackedTileField.pack(tile.type, tile.getExitBits(), paletteId);
+	}
+	
+	private static DungeonTile unpack(int packed, String[] palettes) {
+		DungeonTile tile = new DungeonTile(PackedTileField.typeOf(packed));
+		tile.setExitBits(PackedTileField.exitsOf(packed));
+		int paletteId = PackedTileField.paletteIdOf(packed);
+		if (paletteId<palettes.length) tile.palette = palettes[paletteId];
+		return tile;
+	}
+	
+	/**
+	 * Reads a full field, or applies a delta from {@link #serializeChanges(ITagCompound)} on top of the current one.
+	 * @throws IllegalArgumentException if a delta was written for a field of a different size
+	 */
+	@Override
+	public ITagCompound deserialize(ITagCompound tag) {
+		int width = tag.getInteger("Width");
+		int height = tag.getInteger("Height");
+		boolean delta = tag.getByte("Encoding")==ENCODING_DELTA;
+		if (delta && (field.getWidth()!=width || field.getHeight()!=height)) {
+			throw new IllegalArgumentException("Delta is for a "+width+"x"+height+" field, but this one is "+field.getWidth()+"x"+field.getHeight());
+		}
+		
+		String[] palettes = new String[tag.getInteger("PaletteCount")+1];
+		for(int i=1; i<palettes.length; i++) {
+			palettes[i] = tag.getString("Palette"+i);
+		}
+		
+		if (delta) {
+			int[] changes = tag.getIntArray("Tiles");
+			for(int i=0; i+1<changes.length; i+=2) {
+				int index = changes[i];
+				if (index<0 || index>=width*height) throw new IllegalArgumentException("Delta tile "+index+" is outside the field");
+				int packed = changes[i+1];
+				field.put(index % width, index / width, (packed==PackedTileField.EMPTY) ? null : unpack(packed, palettes));
+			}
+			return tag;
+		}
+		
+		if (field.getWidth()!=width || field.getHeight()!=height) {
+			field = DungeonTile.newField(width, height);
+		} else {
+			field.clear();
+		}
+		
+		int[] tiles = tag.getIntArray("Tiles");
+		if (tag.getByte("Encoding")==ENCODING_RLE) tiles = decodeRuns(tiles, width*height);
+		if (tiles.length<width*height) throw new IllegalArgumentException("Expected "+(width*height)+" tiles but found "+tiles.length);
+		
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) {
+				int packed = tiles[y*width+x];
+				if (packed==PackedTileField.EMPTY) continue;
+				field.put(x, y, unpack(packed, palettes));
+			}
+		}
+		return tag;
+	}
+	
+	/**
+	 * @return (run length, value) pairs covering the whole array
+	 */
+	public static int[] encodeRuns(int[] values) {
+		int[] result = new int[16];
+		int count = 0;
+		int i = 0;
+		while(i<values.length) {
+			int value = values[i];
+			int run = 1;
+			while(i+run<values.length && values[i+run]==value) run++;
+			if (count+2>result.length) result = Arrays.copyOf(result, result.length*2);
+			result[count++] = run;
+			result[count++] = value;
+			i += run;
+		}
+		return Arrays.copyOf(result, count);
+	}
+	
+	/**
+	 * Expands (run length, value) pairs back out.
+	 * @param expectedLength how many values the runs should add up to
+	 */
+	public static int[] decodeRuns(int[] runs, int expectedLength) {
+		int[] result = new int[expectedLength];
+		int pos = 0;
+		for(int i=0; i+1<runs.length; i+=2) {
+			int run = runs[i];
+			if (run<0 || pos+run>expectedLength) throw new IllegalArgumentException("Runs overflow the expected "+expectedLength+" values");
+			Arrays.fill(result, pos, pos+run, runs[i+1]);
+			pos += run;
+		}
+		if (pos!=expectedLength) throw new IllegalArgumentException("Runs cover "+pos+" values, expected "+expectedLength);
+		return result;
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Turns dungeons into images without needing a display. Tiles are drawn exactly as {@link VectorPanel} draws
+ * them (both go through {@link TileRaster}), with the rows split into bands that are rendered in parallel on
+ * the common fork-join pool.
+ */
+public final class DungeonImageExporter {
+	/** Rows of tiles per band handed to one worker */
+	private static final int BAND_HEIGHT = 64;
+	/** Rows of pixels per band compressed by one worker when writing a PNG */
+	private static final int PNG_BAND_HEIGHT = 256;
+	private static final byte[] PNG_SIGNATURE = { (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int PNG_FILTER_UP = 2;
+	/** Every color TileRaster can draw. Few enough to fit an 8-bit palette, so a PNG pixel is one byte, not three. */
+	private static final int[] PNG_PALETTE;
+	static {
+		int[] colors = new int[1 + TileType.values().length*2];
+		int count = 0;
+		colors[count++] = TileRaster.OOB_COLOR & 0xFFFFFF;
+		for(TileType type : TileType.values()) {
+			for(int color : new int[] { TileRaster.fillColor(type), TileRaster.wallColor(type) }) {
+				color &= 0xFFFFFF;
+				boolean seen = false;
+				for(int i=0; i<count; i++) {
+					if (colors[i]==color) seen = true;
+				}
+				if (!seen) colors[count++] = color;
+			}
+		}
+		PNG_PALETTE = Arrays.copyOf(colors, count);
+	}
+	
+	private DungeonImageExporter() {}
+	
+	/**
+	 * Renders a whole dungeon into a new pixel array, {@code width*zoom} pixels across and {@code height*zoom}
+	 * down, one packed RGB int per pixel.
+	 */
+	public static int[] rasterize(ITileField field, int zoom) {
+		if (zoom<1) throw new IllegalArgumentException("zoom must be at least 1");
+		int width = field.getWidth();
+		int height = field.getHeight();
+		int stride = width*zoom;
+		long pixelCount = (long)stride * height*zoom;
+		if (pixelCount>Integer.MAX_VALUE) throw new IllegalArgumentException("A "+width+"x"+height+" dungeon at zoom "+zoom+" is too big for one image");
+		
+		int[] pixels = new int[(int)pixelCount];
+		int bands = (height+BAND_HEIGHT-1) / BAND_HEIGHT;
+		IntStream.range(0, bands).parallel().forEach(band -> {
+			int tileY = band*BAND_HEIGHT;
+			int tilesH = Math.min(BAND_HEIGHT, height-tileY);
+			TileRaster.render(field, 0, tileY, width, tilesH, zoom, pixels, stride, 0, 0);
+		});
+		return pixels;
+	}
+	
+	/**
+	 * Renders a dungeon into a BufferedImage. The image is backed directly by the rendered pixels; nothing is copied.
+	 */
+	public static BufferedImage toImage(ITileField field, int zoom) {
+		int[] pixels = rasterize(field, zoom);
+		int width = field.getWidth()*zoom;
+		int height = field.getHeight()*zoom;
+		DirectColorModel model = new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF);
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height, width, model.getMasks(), null);
+		return new BufferedImage(model, raster, false, null);
+	}
+	
+	/**
+	 * Writes a dungeon as a PNG. This skips ImageIO, whose writer tries every filter on every row and deflates
+	 * the lot on one thread. Instead pixels go out as indices into a palette of the tile colors, every row is
+	 * Up-filtered - zoomed tiles repeat rows, so most come out as zeroes - and bands of rows are deflated at the
+	 * fastest level in parallel, then joined into one stream the same way pigz does it.
+	 */
+	public static void writePng(ITileField field, int zoom, OutputStream stream) throws IOException {
+		int[] pixels = rasterize(field, zoom);
+		int width = field.getWidth()*zoom;
+		int height = field.getHeight()*zoom;
+		
+		int bands = (height+PNG_BAND_HEIGHT-1) / PNG_BAND_HEIGHT;
+		byte[][] compressed = new byte[bands][];
+		long[] checksums = new long[bands];
+		IntStream.range(0, bands).parallel().forEach(band -> {
+			int firstRow = band*PNG_BAND_HEIGHT;
+			int rows = Math.min(PNG_BAND_HEIGHT, height-firstRow);
+			byte[] raw = filterRows(pixels, width, firstRow, rows);
+			Adler32 adler = new Adler32();
+			adler.update(raw, 0, raw.length);
+			checksums[band] = adler.getValue();
+			compressed[band] = deflate(raw, band==bands-1);
+		});
+		
+		long checksum = 1L;
+		long bandBytes = (long)(1 + width) * PNG_BAND_HEIGHT;
+		for(int band=0; band<bands; band++) {
+			long length = (band==bands-1) ? (long)(1 + width) * (height - band*PNG_BAND_HEIGHT) : bandBytes;
+			checksum = combineAdler32(checksum, checksums[band], length);
+		}
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		out.write(PNG_SIGNATURE);
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8; //Bits per index
+		header[9] = 3; //Paletted
+		writeChunk(out, "IHDR", header, 0, header.length);
+		
+		byte[] palette = new byte[PNG_PALETTE.length*3];
+		for(int i=0; i<PNG_PALETTE.length; i++) {
+			palette[i*3  ] = (byte)(PNG_PALETTE[i] >> 16);
+			palette[i*3+1] = (byte)(PNG_PALETTE[i] >>  8);
+			palette[i*3+2] = (byte) PNG_PALETTE[i];
+		}
+		writeChunk(out, "PLTE", palette, 0, palette.length);
+		
+		writeChunk(out, "IDAT", new byte[] { 0x78, 0x01 }, 0, 2); //zlib header for fastest compression
+		for(byte[] data : compressed) {
+			writeChunk(out, "IDAT", data, 0, data.length);
+		}
+		byte[] trailer = new byte[4];
+		writeInt(trailer, 0, (int)checksum);
+		writeChunk(out, "IDAT", trailer, 0, trailer.length);
+		
+		writeChunk(out, "IEND", new byte[0], 0, 0);
+		out.flush();
+	}
+	
+	/**
+	 * Lays out rows as PNG scanlines: a filter byte, then each pixel's palette index, minus the index above it.
+	 */
+	private static byte[] filterRows(int[] pixels, int width, int firstRow, int rows) {
+		int lineLength = 1 + width;
+		byte[] raw = new byte[lineLength*rows];
+		byte[] above = new byte[width];
+		byte[] current = new byte[width];
+		if (firstRow>0) toIndices(pixels, (firstRow-1)*width, width, above);
+		for(int row=0; row<rows; row++) {
+			toIndices(pixels, (firstRow+row)*width, width, current);
+			int line = row*lineLength;
+			raw[line] = PNG_FILTER_UP;
+			for(int x=0; x<width; x++) {
+				raw[line+1+x] = (byte)(current[x] - above[x]);
+			}
+			byte[] swap = above;
+			above = current;
+			current = swap;
+		}
+		return raw;
+	}
+	
+	private static void toIndices(int[] pixels, int offset, int width, byte[] dest) {
+		//Colors come in long runs, so remembering the last one skips nearly every search
+		int lastColor = -1;
+		int lastIndex = 0;
+		for(int x=0; x<width; x++) {
+			int color = pixels[offset+x] & 0xFFFFFF;
+			if (color!=lastColor) {
+				lastIndex = paletteIndex(color);
+				lastColor = color;
+			}
+			dest[x] = (byte)lastIndex;
+		}
+	}
+	
+	private static int paletteIndex(int color) {
+		for(int i=0; i<PNG_PALETTE.length; i++) {
+			if (PNG_PALETTE[i]==color) return i;
+		}
+		throw new IllegalStateException("Color "+Integer.toHexString(color)+" isn't a tile color");
+	}
+	
+	/**
+	 * Raw-deflates one band. Every band but the last ends on a sync flush, which leaves it byte-aligned and
+	 * unterminated, so the bands can simply be concatenated.
+	 */
+	private static byte[] deflate(byte[] raw, boolean last) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			deflater.setInput(raw);
+			if (last) deflater.finish();
+			byte[] result = new byte[raw.length/8 + 64];
+			int length = 0;
+			while(true) {
+				if (length==result.length) result = Arrays.copyOf(result, result.length*2);
+				int written = deflater.deflate(result, length, result.length-length, (last) ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				length += written;
+				if (last) {
+					if (deflater.finished()) break;
+				} else if (length<result.length) {
+					break; //A flush that didn't fill the buffer is a flush that's done
+				}
+			}
+			return Arrays.copyOf(result, length);
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * The Adler-32 of two runs of bytes back to back, given each run's own checksum and the second run's length.
+	 * Same math as zlib's adler32_combine.
+	 */
+	private static long combineAdler32(long first, long second, long secondLength) {
+		final long base = 65521;
+		long rem = secondLength % base;
+		long sum1 = first & 0xFFFF;
+		long sum2 = (rem*sum1) % base;
+		sum1 += (second & 0xFFFF) + base - 1;
+		sum2 += ((first >>> 16) & 0xFFFF) + ((second >>> 16) & 0xFFFF) + base - rem;
+		if (sum1>=base) sum1 -= base;
+		if (sum1>=base) sum1 -= base;
+		if (sum2>=base*2) sum2 -= base*2;
+		if (sum2>=base) sum2 -= base;
+		return sum1 | (sum2 << 16);
+	}
+	
+	private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, offset, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, offset, length);
+		out.writeInt((int)crc.getValue());
+	}
+	
+	private static void writeInt(byte[] buf, int offset, int value) {
+		buf[offset  ] = (byte)(value >>> 24);
+		buf[offset+1] = (byte)(value >>> 16);
+		buf[offset+2] = (byte)(value >>>  8);
+		buf[offset+3] = (byte) value;
+	}
+	
+	public static void writePng(ITileField field, int zoom, File file) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			writePng(field, zoom, out);
+		}
+	}
+	
+	public static void writePng(VectorField<DungeonTile> field, int zoom, File file) throws IOException {
+		writePng(new DungeonTileField(field), zoom, file);
+	}
+}
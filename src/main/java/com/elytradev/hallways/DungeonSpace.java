@@ -0,0 +1,314 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * An unbounded dungeon, split into square chunks which are generated the first time they're asked for.
+ * 
+ * <p>Each chunk is an ordinary FieldGenerator dungeon, seeded from the world seed and the chunk coordinates,
+ * so a chunk always comes out the same no matter when or in what order it's generated. Every edge shared by
+ * two chunks gets one "portal" position, also derived from the world seed, and both chunks carve a hallway
+ * from that spot to their nearest room. That way hallways line up across chunk borders without either chunk
+ * needing to look at the other.
+ * 
+ * <p>Only a bounded number of chunks are kept; the least recently used ones are dropped and simply regenerated
+ * if they're needed again. This means edits made to a chunk are lost when it's evicted - callers that modify
+ * chunks need to persist them themselves.
+ * 
+ * <p>Chunks are generated outside the lock, so a slow chunk only holds up the threads waiting for that same
+ * chunk. If several threads ask for it at once, one generates it and the rest wait for that.
+ */
+public class DungeonSpace {
+	public static final int DEFAULT_CHUNK_SIZE = 64;
+	public static final int DEFAULT_MAX_LOADED_CHUNKS = 256;
+	private static final long HORIZONTAL_EDGE_SALT = 0x2545F4914F6CDD1DL;
+	private static final long VERTICAL_EDGE_SALT   = 0x5DEECE66DL;
+	
+	private final long seed;
+	private final int chunkSize;
+	private final int maxLoadedChunks;
+	private int minRoomSize = 3;
+	private int maxRoomSize = 7;
+	private final LinkedHashMap<Long, PackedTileField> chunks;
+	private final HashMap<Long, CompletableFuture<PackedTileField>> loading = new HashMap<>();
+	/** Bumped whenever loaded chunks are thrown out because the settings changed, so stale loads aren't kept */
+	private int settingsVersion = 0;
+	
+	public DungeonSpace(long seed) {
+		this(seed, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_LOADED_CHUNKS);
+	}
+	
+	public DungeonSpace(long seed, int chunkSize, int maxLoadedChunks) {
+		if (chunkSize<16) throw new IllegalArgumentException("Chunks must be at least 16 tiles across");
+		if (maxLoadedChunks<1) throw new IllegalArgumentException("At least one chunk has to fit in memory");
+		this.seed = seed;
+		this.chunkSize = chunkSize;
+		this.maxLoadedChunks = maxLoadedChunks;
+		this.chunks = new LinkedHashMap<Long, PackedTileField>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, PackedTileField> eldest) {
+				return size()>DungeonSpace.this.maxLoadedChunks;
+			}
+		};
+	}
+	
+	/**
+	 * Sets the room sizes used for every chunk. Chunks which are already loaded were made with the old sizes,
+	 * so they're thrown out.
+	 */
+	public synchronized DungeonSpace withRoomSize(int min, int max) {
+		if (max*2>chunkSize) throw new IllegalArgumentException("Rooms of size "+max+" don't fit in chunks of size "+chunkSize);
+		this.minRoomSize = min;
+		this.maxRoomSize = max;
+		chunks.clear();
+		loading.clear(); //Anyone already waiting still gets their chunk, it just won't be kept
+		settingsVersion++;
+		return this;
+	}
+	
+	public long getSeed() { return seed; }
+	public int getChunkSize() { return chunkSize; }
+	
+	private static long key(int chunkX, int chunkY) {
+		return (((long)chunkX) << 32) | (chunkY & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Gets a chunk, generating it if it isn't loaded.
+	 */
+	public PackedTileField getChunk(int chunkX, int chunkY) {
+		Long key = key(chunkX, chunkY);
+		CompletableFuture<PackedTileField> pending;
+		CompletableFuture<PackedTileField> mine = null;
+		int version;
+		synchronized(this) {
+			PackedTileField chunk = chunks.get(key);
+			if (chunk!=null) return chunk;
+			version = settingsVersion;
+			pending = loading.get(key);
+			if (pending==null) {
+				mine = new CompletableFuture<>();
+				loading.put(key, mine);
+			}
+		}
+		
+		if (mine==null) {
+			try {
+				return pending.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw e;
+			}
+		}
+		
+		PackedTileField chunk;
+		try {
+			chunk = generateChunk(chunkX, chunkY);
+		} catch (RuntimeException | Error e) {
+			synchronized(this) {
+				loading.remove(key, mine);
+			}
+			mine.completeExceptionally(e);
+			throw e;
+		}
+		synchronized(this) {
+			loading.remove(key, mine);
+			if (version==settingsVersion) chunks.put(key, chunk);
+		}
+		mine.complete(chunk);
+		return chunk;
+	}
+	
+	/**
+	 * @return the chunk if it's loaded, or null. Never generates anything.
+	 */
+	public synchronized PackedTileField getLoadedChunk(int chunkX, int chunkY) {
+		return chunks.get(key(chunkX, chunkY));
+	}
+	
+	public synchronized boolean isLoaded(int chunkX, int chunkY) {
+		return chunks.containsKey(key(chunkX, chunkY));
+	}
+	
+	public synchronized int getLoadedChunkCount() {
+		return chunks.size();
+	}
+	
+	/**
+	 * Drops a chunk. It'll be regenerated, exactly as it was first generated, the next time it's needed.
+	 * @return true if the chunk was loaded
+	 */
+	public synchronized boolean evict(int chunkX, int chunkY) {
+		return chunks.remove(key(chunkX, chunkY))!=null;
+	}
+	
+	public synchronized void evictAll() {
+		chunks.clear();
+	}
+	
+	/*
+	 * World-coordinate access. These load chunks as needed.
+	 */
+	
+	public boolean isOpen(int x, int y) {
+		return getChunk(Math.floorDiv(x, chunkSize), Math.floorDiv(y, chunkSize))
+				.isOpen(Math.floorMod(x, chunkSize), Math.floorMod(y, chunkSize));
+	}
+	
+	public TileType getType(int x, int y) {
+		return getChunk(Math.floorDiv(x, chunkSize), Math.floorDiv(y, chunkSize))
+				.getType(Math.floorMod(x, chunkSize), Math.floorMod(y, chunkSize));
+	}
+	
+	public int getExits(int x, int y) {
+		return getChunk(Math.floorDiv(x, chunkSize), Math.floorDiv(y, chunkSize))
+				.getExits(Math.floorMod(x, chunkSize), Math.floorMod(y, chunkSize));
+	}
+	
+	public DungeonTile getTile(int x, int y) {
+		return getChunk(Math.floorDiv(x, chunkSize), Math.floorDiv(y, chunkSize))
+				.getTile(Math.floorMod(x, chunkSize), Math.floorMod(y, chunkSize));
+	}
+	
+	/**
+	 * Gets where the hallway crosses one side of a chunk, measured along that side. Both chunks sharing an
+	 * edge always agree on this. Portals stay off the corners so they never land on a chunk's corner tile.
+	 */
+	public int getPortalOffset(int chunkX, int chunkY, Cardinal side) {
+		long edgeSeed;
+		switch(side) {
+		case NORTH: edgeSeed = FieldGenerator.cellSeed(seed ^ HORIZONTAL_EDGE_SALT, chunkX, chunkY-1); break;
+		case SOUTH: edgeSeed = FieldGenerator.cellSeed(seed ^ HORIZONTAL_EDGE_SALT, chunkX, chunkY); break;
+		case WEST:  edgeSeed = FieldGenerator.cellSeed(seed ^ VERTICAL_EDGE_SALT, chunkX-1, chunkY); break;
+		default:
+		case EAST:  edgeSeed = FieldGenerator.cellSeed(seed ^ VERTICAL_EDGE_SALT, chunkX, chunkY); break;
+		}
+		return 1 + (int)Math.floorMod(edgeSeed, (long)(chunkSize-2));
+	}
+	
+	/**
+	 * Called without the lock held, possibly for several chunks at once.
+	 */
+	protected PackedTileField generateChunk(int chunkX, int chunkY) {
+		int minRoomSize;
+		int maxRoomSize;
+		synchronized(this) {
+			minRoomSize = this.minRoomSize;
+			maxRoomSize = this.maxRoomSize;
+		}
+		FieldGenerator generator = new FieldGenerator()
+				.withSeed(FieldGenerator.cellSeed(seed, chunkX, chunkY))
+				.withRoomSize(minRoomSize, maxRoomSize)
+				.withPlacement(FieldGenerator.Placement.CELL_SEEDED);
+		PackedTileField chunk = generator.generatePacked(chunkSize);
+		
+		for(Cardinal side : Cardinal.VALUES) {
+			carvePortal(chunk, generator.getRooms(), side, getPortalOffset(chunkX, chunkY, side));
+		}
+		return chunk;
+	}
+	
+	/**
+	 * Runs a hallway from the portal on one side of the chunk to the nearest room: inward first, then across,
+	 * stopping early if it bumps into something else it can join up with. Everything it can bump into (rooms,
+	 * hallways, portals carved before it) is already part of the dungeon, so no portal is left dangling.
+	 */
+	private void carvePortal(PackedTileField chunk, List<FieldGenerator.Room> rooms, Cardinal side, int offset) {
+		Cardinal inward = side.opposite();
+		int x;
+		int y;
+		switch(side) {
+		case NORTH: x = offset; y = 0; break;
+		case SOUTH: x = offset; y = chunkSize-1; break;
+		case WEST:  x = 0; y = offset; break;
+		default:
+		case EAST:  x = chunkSize-1; y = offset; break;
+		}
+		
+		//The border tile always gets an exit through the chunk edge, to meet the neighbor's matching portal.
+		//If something's already there (a room butting up against the edge, say) that's all it takes.
+		if (chunk.isOpen(x, y)) {
+			chunk.addExit(x, y, side);
+			return;
+		}
+		chunk.setType(x, y, TileType.HALLWAY);
+		chunk.addExit(x, y, side);
+		
+		//Aim for the closest tile of the closest room
+		FieldGenerator.Room nearest = null;
+		int bestDistance = Integer.MAX_VALUE;
+		for(FieldGenerator.Room room : rooms) {
+			int distance = Math.abs(clamp(x, room.x, room.x+room.width-1)-x) + Math.abs(clamp(y, room.y, room.y+room.height-1)-y);
+			if (distance<bestDistance) {
+				bestDistance = distance;
+				nearest = room;
+			}
+		}
+		if (nearest==null) return; //No rooms at all, nothing to reach
+		int targetX = clamp(x, nearest.x, nearest.x+nearest.width-1);
+		int targetY = clamp(y, nearest.y, nearest.y+nearest.height-1);
+		
+		while(true) {
+			//Inward until we're level with the target, then across. The target's open, so this always ends.
+			Cardinal dir;
+			if (inward.xOfs()!=0 && x!=targetX) {
+				dir = inward;
+			} else if (inward.yOfs()!=0 && y!=targetY) {
+				dir = inward;
+			} else {
+				dir = Cardinal.fromDelta(targetX-x, targetY-y);
+			}
+			int nextX = x+dir.xOfs();
+			int nextY = y+dir.yOfs();
+			
+			if (chunk.isOpen(nextX, nextY)) {
+				//Join up with whatever we hit
+				chunk.addExit(x, y, dir);
+				chunk.addExit(nextX, nextY, dir.opposite());
+				if (chunk.getType(nextX, nextY)==TileType.ROOM) chunk.setType(x, y, TileType.DOOR);
+				return;
+			}
+			
+			chunk.setType(nextX, nextY, TileType.HALLWAY);
+			chunk.addExit(x, y, dir);
+			chunk.addExit(nextX, nextY, dir.opposite());
+			x = nextX;
+			y = nextY;
+		}
+	}
+	
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+}
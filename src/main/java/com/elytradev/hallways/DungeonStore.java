@@ -0,0 +1,300 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Keeps generated dungeons on disk, one file per {@link GenerationSpec}, so that reloading a region means
+ * mapping a file instead of running the generator again.
+ * 
+ * <p>The file format is big-endian throughout:
+ * <pre>
+ * int    magic 'HWDG'
+ * int    format version
+ * -----  the spec: long seed, int size, int minRoomSize, int maxRoomSize,
+ *        int entranceX, int entranceY, int exitX, int exitY, int paletteCount, UTF palettes...
+ * int    width
+ * int    height
+ * int    tile palette count, followed by that many UTF names (ids 1..n)
+ * -----  zero padding up to a multiple of 4 bytes
+ * int[]  width*height packed tiles, laid out as in {@link PackedTileField}
+ * </pre>
+ * The spec is written in full so that a hash collision in the file name can't hand back the wrong dungeon.
+ * 
+ * <p>Loading maps the file read-only and wraps the tile array in a {@link MappedTileField} without copying it.
+ */
+public class DungeonStore {
+	private static final int MAGIC = 0x48574447; //HWDG
+	private static final int VERSION = 1;
+	private static final String EXTENSION = ".hwd";
+	/** A file gets mapped in one piece, which tops out at 2GiB. This leaves a MiB of that for the header and palettes. */
+	private static final long MAX_TILE_BYTES = Integer.MAX_VALUE - (1 << 20);
+	
+	private final File directory;
+	
+	public DungeonStore(File directory) {
+		this.directory = directory;
+	}
+	
+	public File getDirectory() { return directory; }
+	
+	/**
+	 * @return the file this spec's dungeon is (or would be) kept in
+	 */
+	public File fileFor(GenerationSpec spec) {
+		//64-bit FNV-1a over the spec's fields, in the same order writeSpec puts them in the header. Collisions are
+		//caught by the header check in load.
+		long hash = 0xcbf29ce484222325L;
+		hash = hashLong(hash, spec.getSeed());
+		hash = hashInt(hash, spec.getSize());
+		hash = hashInt(hash, spec.getMinRoomSize());
+		hash = hashInt(hash, spec.getMaxRoomSize());
+		hash = hashInt(hash, spec.getEntranceX());
+		hash = hashInt(hash, spec.getEntranceY());
+		hash = hashInt(hash, spec.getExitX());
+		hash = hashInt(hash, spec.getExitY());
+		String[] palettes = spec.getPalettes();
+		hash = hashInt(hash, palettes.length);
+		for(String palette : palettes) {
+			hash = hashInt(hash, palette.length()); //So ["ab","c"] and ["a","bc"] don't come out the same
+			for(int i=0; i<palette.length(); i++) {
+				char ch = palette.charAt(i);
+				hash = (hash ^ (ch & 0xFF)) * 0x100000001b3L;
+				hash = (hash ^ (ch >>> 8)) * 0x100000001b3L;
+			}
+		}
+		return new File(directory, String.format("dungeon-%016x%s", hash, EXTENSION));
+	}
+	
+	private static long hashInt(long hash, int value) {
+		for(int i=0; i<4; i++) {
+			hash ^= (value >>> (i*8)) & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	private static long hashLong(long hash, long value) {
+		return hashInt(hashInt(hash, (int) value), (int) (value >>> 32));
+	}
+	
+	public boolean contains(GenerationSpec spec) {
+		return fileFor(spec).isFile();
+	}
+	
+	/**
+	 * Maps a stored dungeon.
+	 * @return the dungeon, or null if there isn't one stored for this spec
+	 * @throws IOException if the file exists but can't be read, or isn't a dungeon file
+	 */
+	public MappedTileField load(GenerationSpec spec) throws IOException {
+		File file = fileFor(spec);
+		if (!file.isFile()) return null;
+		
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //Stays valid after the channel closes
+		}
+		
+		if (buf.remaining()<8 || buf.getInt()!=MAGIC) throw new IOException(file+" is not a dungeon file");
+		int version = buf.getInt();
+		if (version!=VERSION) throw new IOException(file+" has unsupported format version "+version);
+		if (!readSpecMatches(buf, spec)) return null; //Someone else's dungeon that happened to hash the same
+		
+		int width = buf.getInt();
+		int height = buf.getInt();
+		int paletteCount = buf.getInt();
+		String[] palettes = new String[paletteCount+1];
+		for(int i=1; i<=paletteCount; i++) {
+			palettes[i] = readUTF(buf);
+		}
+		buf.position((buf.position()+3) & ~3);
+		
+		long tileBytes = (long)width*height*4;
+		if (width<1 || height<1 || tileBytes>MAX_TILE_BYTES) throw new IOException(file+" has a bad size "+width+"x"+height);
+		if (buf.remaining() < tileBytes) throw new IOException(file+" is truncated");
+		ByteBuffer tiles = buf.slice();
+		tiles.limit((int)tileBytes);
+		return new MappedTileField(width, height, tiles.asIntBuffer(), palettes);
+	}
+	
+	/**
+	 * Writes a dungeon to the store, replacing anything already stored for this spec. The file is written
+	 * to a temporary name first and then moved into place, so readers never see half a dungeon.
+	 */
+	public void save(GenerationSpec spec, ITileField field) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Can't create "+directory);
+		File file = fileFor(spec);
+		File temp = File.createTempFile("dungeon-", ".tmp", directory);
+		try {
+			try (OutputStream out = new FileOutputStream(temp)) {
+				write(spec, field, out);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+	
+	public void save(GenerationSpec spec, VectorField<DungeonTile> field) throws IOException {
+		save(spec, new DungeonTileField(field));
+	}
+	
+	/**
+	 * Loads the stored dungeon for this spec, generating and storing it first if there isn't one.
+	 * @return the dungeon, or null if generation failed
+	 */
+	public MappedTileField loadOrGenerate(GenerationSpec spec) throws IOException {
+		MappedTileField result = load(spec);
+		if (result!=null) return result;
+		
+		PackedTileField generated = spec.configure(new FieldGenerator()).generatePacked(spec.getSize());
+		if (generated==null) return null;
+		save(spec, generated);
+		return load(spec);
+	}
+	
+	/**
+	 * Writes a dungeon in this store's file format to any stream.
+	 * @throws IllegalArgumentException if the field is too big to map back in (around 23000x23000)
+	 */
+	public static void write(GenerationSpec spec, ITileField field, OutputStream stream) throws IOException {
+		if ((long)field.getWidth()*field.getHeight()*4 > MAX_TILE_BYTES) {
+			throw new IllegalArgumentException("A "+field.getWidth()+"x"+field.getHeight()+" dungeon is too big to store");
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeSpec(out, spec);
+		
+		int width = field.getWidth();
+		int height = field.getHeight();
+		out.writeInt(width);
+		out.writeInt(height);
+		
+		if (field instanceof PackedTileField) {
+			//Already packed; its palette ids can go out as-is
+			PackedTileField packed = (PackedTileField)field;
+			int paletteCount = packed.getPaletteCount()-1;
+			out.writeInt(paletteCount);
+			for(int i=1; i<=paletteCount; i++) out.writeUTF(packed.getPaletteName(i));
+			while((out.size() & 3) != 0) out.writeByte(0);
+			
+			for(int y=0; y<height; y++) {
+				for(int x=0; x<width; x++) out.writeInt(packed.getPacked(x, y));
+			}
+		} else {
+			//Anything else needs its palettes interned first, so that ids are known before the tiles go out
+			ArrayList<String> palettes = new ArrayList<>();
+			HashMap<String, Integer> paletteIds = new HashMap<>();
+			for(int y=0; y<height; y++) {
+				for(int x=0; x<width; x++) {
+					String palette = field.getPalette(x, y);
+					if (palette!=null && !paletteIds.containsKey(palette)) {
+						palettes.add(palette);
+						paletteIds.put(palette, palettes.size());
+					}
+				}
+			}
+			out.writeInt(palettes.size());
+			for(String palette : palettes) out.writeUTF(palette);
+			while((out.size() & 3) != 0) out.writeByte(0);
+			
+			for(int y=0; y<height; y++) {
+				for(int x=0; x<width; x++) {
+					DungeonTile tile = field.getTile(x, y);
+					if (tile==null) {
+						out.writeInt(PackedTileField.EMPTY);
+					} else {
+						int paletteId = (tile.palette==null) ? 0 : paletteIds.get(tile.palette);
+						out.writeInt(PackedTileField.pack(tile.type, tile.getExitBits(), paletteId));
+					}
+				}
+			}
+		}
+		out.flush();
+	}
+	
+	private static void writeSpec(DataOutputStream out, GenerationSpec spec) throws IOException {
+		out.writeLong(spec.getSeed());
+		out.writeInt(spec.getSize());
+		out.writeInt(spec.getMinRoomSize());
+		out.writeInt(spec.getMaxRoomSize());
+		out.writeInt(spec.getEntranceX());
+		out.writeInt(spec.getEntranceY());
+		out.writeInt(spec.getExitX());
+		out.writeInt(spec.getExitY());
+		String[] palettes = spec.getPalettes();
+		out.writeInt(palettes.length);
+		for(String palette : palettes) out.writeUTF(palette);
+	}
+	
+	private static boolean readSpecMatches(ByteBuffer buf, GenerationSpec spec) throws IOException {
+		boolean matches =
+				buf.getLong()==spec.getSeed() &
+				buf.getInt()==spec.getSize() &
+				buf.getInt()==spec.getMinRoomSize() &
+				buf.getInt()==spec.getMaxRoomSize() &
+				buf.getInt()==spec.getEntranceX() &
+				buf.getInt()==spec.getEntranceY() &
+				buf.getInt()==spec.getExitX() &
+				buf.getInt()==spec.getExitY();
+		String[] palettes = spec.getPalettes();
+		int count = buf.getInt();
+		if (count!=palettes.length) return false;
+		for(int i=0; i<count; i++) {
+			if (!readUTF(buf).equals(palettes[i])) matches = false;
+		}
+		return matches;
+	}
+	
+	/**
+	 * Reads a string written by DataOutput.writeUTF. That's Java's "modified UTF-8", which differs from the real
+	 * thing for U+0000 and anything outside the BMP, so it goes back through DataInputStream to decode.
+	 */
+	private static String readUTF(ByteBuffer buf) throws IOException {
+		int length = buf.getShort(buf.position()) & 0xFFFF;
+		byte[] bytes = new byte[2+length]; //Length prefix and all, the way readUTF expects it
+		buf.get(bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+	}
+}
@@ -45,9 +45,18 @@ public class DungeonTile implements ITagSerializable, Cloneable {
 	public DungeonTile clone() {
 		DungeonTile result = new DungeonTile(type);
 		result.exits = EnumSet.copyOf(exits);
+		result.palette = palette;
 		return result;
 	}
 	
+	/**
+	 * Makes an empty field of tiles, set up so that {@link VectorField#snapshot() snapshots} of it don't see
+	 * later edits to individual tiles.
+	 */
+	public static VectorField<DungeonTile> newField(int width, int height) {
+		return new VectorField<DungeonTile>(width, height).setCopier(DungeonTile::clone);
+	}
+	
 	public EnumSet<Cardinal> exits() { return exits; }
 	
 	public void clearExits() {
@@ -60,27 +69,34 @@ public class DungeonTile implements ITagSerializable, Cloneable {
 			exits.add(cardinal);
 		}
 	}
-
-	@Override
-	public ITagCompound serialize(ITagCompound tag) {
+	
+	/** Gets the exits of this tile as a bitmask of {@link Cardinal#bit()} values. */
+	public int getExitBits() {
 		int i = 0;
 		for (Cardinal c : exits) {
-			i |= (1 << c.ordinal());
+			i |= c.bit();
+		}
+		return i;
+	}
+	
+	/** Replaces the exits of this tile with the ones named in a bitmask of {@link Cardinal#bit()} values. */
+	public void setExitBits(int bits) {
+		exits.clear();
+		for (Cardinal c : Cardinal.VALUES) {
+			if ((bits & c.bit()) != 0) exits.add(c);
 		}
-		tag.setByte("Exits", (byte)i);
+	}
+
+	@Override
+	public ITagCompound serialize(ITagCompound tag) {
+		tag.setByte("Exits", (byte)getExitBits());
 		tag.setByte("Type", (byte)type.ordinal());
 		return tag;
 	}
 
 	@Override
 	public ITagCompound deserialize(ITagCompound tag) {
-		exits.clear();
-		int exitsSet = tag.getByte("Exits")&0xFF;
-		for (Cardinal c : Cardinal.values()) {
-			if ((exitsSet & (1 << c.ordinal())) != 0) {
-				exits.add(c);
-			}
-		}
+		setExitBits(tag.getByte("Exits")&0xFF);
 		type = TileType.values()[tag.getInteger("Type")];
 		return tag;
 	}
@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+/**
+ * Lets a {@code VectorField<DungeonTile>} be used anywhere an {@link ITileField} is wanted. Writes create
+ * DungeonTiles on demand, exactly like calling {@code getOrCreate(x, y, DungeonTile::new)} would.
+ */
+public class DungeonTileField implements ITileField {
+	private final VectorField<DungeonTile> field;
+	
+	public DungeonTileField(VectorField<DungeonTile> field) {
+		this.field = field;
+	}
+	
+	public VectorField<DungeonTile> getField() { return field; }
+	
+	@Override
+	public int getWidth() { return field.getWidth(); }
+	@Override
+	public int getHeight() { return field.getHeight(); }
+	
+	@Override
+	public boolean isInBounds(int x, int y) {
+		return field.isInBounds(x, y);
+	}
+	
+	@Override
+	public boolean isOpen(int x, int y) {
+		DungeonTile tile = field.get(x, y);
+		return tile!=null && tile.type!=null && tile.type!=TileType.OOB;
+	}
+	
+	@Override
+	public TileType getType(int x, int y) {
+		DungeonTile tile = field.get(x, y);
+		if (tile==null || tile.type==null) return TileType.OOB;
+		return tile.type;
+	}
+	
+	@Override
+	public int getExits(int x, int y) {
+		DungeonTile tile = field.get(x, y);
+		if (tile==null) return 0;
+		return tile.getExitBits();
+	}
+	
+	@Override
+	public String getPalette(int x, int y) {
+		DungeonTile tile = field.get(x, y);
+		if (tile==null) return null;
+		return tile.palette;
+	}
+	
+	@Override
+	public void setType(int x, int y, TileType type) {
+		if (!field.isInBounds(x, y)) return;
+		field.getOrCreate(x, y, DungeonTile::new).type = type;
+	}
+	
+	@Override
+	public void setExits(int x, int y, int exits) {
+		if (!field.isInBounds(x, y)) return;
+		field.getOrCreate(x, y, DungeonTile::new).setExitBits(exits);
+	}
+	
+	@Override
+	public void addExit(int x, int y, Cardinal dir) {
+		if (!field.isInBounds(x, y)) return;
+		field.getOrCreate(x, y, DungeonTile::new).exits.add(dir);
+	}
+	
+	@Override
+	public void removeExit(int x, int y, Cardinal dir) {
+		if (!field.isInBounds(x, y)) return;
+		field.getOrCreate(x, y, DungeonTile::new).exits.remove(dir);
+	}
+	
+	@Override
+	public void setPalette(int x, int y, String palette) {
+		if (!field.isInBounds(x, y)) return;
+		field.getOrCreate(x, y, DungeonTile::new).palette = palette;
+	}
+	
+	@Override
+	public void setTile(int x, int y, TileType type, int exits, String palette) {
+		if (!field.isInBounds(x, y)) return;
+		DungeonTile tile = field.getOrCreate(x, y, DungeonTile::new);
+		tile.setExitBits(exits);
+		tile.palette = palette;
+		tile.type = type;
+	}
+	
+	@Override
+	public DungeonTile getTile(int x, int y) {
+		return field.get(x, y);
+	}
+}
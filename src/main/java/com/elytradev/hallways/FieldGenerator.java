@@ -26,21 +26,106 @@ package com.elytradev.hallways;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 public class FieldGenerator {
-	private static final int MAX_CONNECT_ITERATIONS = 3000;
+	/** How many times the connection phase may walk the candidate pairs before it gives up on stragglers */
+	private static final int MAX_CONNECT_PASSES = 16;
+	/** How many cells out from a room we look for rooms to connect it to */
+	private static final int CANDIDATE_WINDOW = 2;
+	/** Cells per batch when cell-seeded placement is being stepped, so the fork-join pool still gets a decent chunk. */
+	private static final int PLACEMENT_BATCH = 256;
+	private static final int SHUFFLE_BATCH = 4096;
+	
+	/**
+	 * How rooms get placed into their grid cells.
+	 */
+	public enum Placement {
+		/**
+		 * Every cell draws from the generator's one Random, in row order. This is the default. Room connection has been
+		 * reworked since the first releases, so seeds from back then won't necessarily give the same dungeon now.
+		 */
+		SHARED_RANDOM,
+		/** Every cell gets its own Random, seeded from the master seed and the cell coordinates. */
+		CELL_SEEDED,
+		/** CELL_SEEDED, with the cells spread across the common fork-join pool. Gives exactly the same dungeon as CELL_SEEDED. */
+		PARALLEL;
+	}
+	
+	/**
+	 * How hallways find their way between two rooms.
+	 */
+	public enum Routing {
+		/** Try the two L-shaped routes and give up on the pair if both are blocked. This is the default. */
+		L_SHAPED,
+		/**
+		 * Like L_SHAPED for the first pass over the room pairs. On later passes, pairs whose L-shaped routes are both
+		 * blocked search for a way around with a bounded A*.
+		 */
+		ASTAR;
+	}
+	
+	/**
+	 * Where a run started by {@link FieldGenerator#start(ITileField)} is up to.
+	 */
+	public enum Stage {
+		/** Nothing started. */
+		IDLE,
+		/** Marking whatever was already in the field as occupied. */
+		SETUP,
+		/** Placing and plotting rooms, cell by cell. */
+		PLACEMENT,
+		/** Finding and shuffling the pairs of rooms that hallways may run between. */
+		PAIRING,
+		/** Running hallways, pass after pass, until everything is connected. */
+		CONNECTION,
+		/** Clearing exits that lead nowhere. */
+		CULLING,
+		/** Finished, or aborted by the listener. */
+		DONE;
+	}
 	
 	Random random = new Random();
+	private Placement placement = Placement.SHARED_RANDOM;
+	private Routing routing = Routing.L_SHAPED;
+	private CorridorRouter router = null;
+	//Scratch space kept between runs, so a reused generator doesn't reallocate it every dungeon
+	private UnionFind components = null;
+	private int[] pairScratch = new int[0];
+	private Room[] placedScratch = new Room[0];
+	private int termX;
+	private int termY;
+	//Where a stepped run is up to. generateInto is just a run stepped in one go.
+	private Stage stage = Stage.IDLE;
+	private GenerationListener runListener;
+	private int cellSize;
+	private int cellsAcross;
+	private long placementSeed;
+	private int pairCount;
+	private int shuffleIndex;
+	private int pass;
+	private int cursor;
+	private long budget;
+	private long stepStart;
+	private long phaseClock;
+	private long phaseWork;
+	private long totalWork;
+	private GenerationListener listener = null;
+	private final GenerationStats stats = new GenerationStats();
 	private Set<String> palettes = new HashSet<>();
-	private VectorField<DungeonTile> field;
+	private ArrayList<RoomTemplate> prefabs = new ArrayList<>();
+	private float prefabChance = 0;
+	private ITileField field;
+	/** Mirrors which tiles of the field are open, so hallway routes can be checked without touching tiles */
+	private OccupancyMask occupied;
 	private ArrayList<Room> rooms = new ArrayList<>();
-	private ArrayList<Hall> halls;
-	private ArrayList<Door> doors;
+	private ArrayList<Hall> halls = new ArrayList<>();
+	private ArrayList<Door> doors = new ArrayList<>();
+	private RoomGraph graph;
 	public int maxRoomSize = 7;
 	public int minRoomSize = 3;
 	public int x1 = 0;
@@ -48,11 +133,64 @@ public class FieldGenerator {
 	public int x2 = 0;
 	public int y2 = 0;
 	
+	/**
+	 * Puts this generator back the way {@code new FieldGenerator()} left it, minus the seed, so it can be
+	 * reused for an unrelated dungeon. Call withSeed afterwards if you want repeatable results.
+	 */
+	public FieldGenerator reset() {
+		placement = Placement.SHARED_RANDOM;
+		routing = Routing.L_SHAPED;
+		listener = null;
+		runListener = null;
+		stage = Stage.IDLE;
+		stats.reset();
+		palettes.clear();
+		prefabs.clear();
+		prefabChance = 0;
+		field = null;
+		rooms.clear();
+		halls.clear();
+		doors.clear();
+		graph = null;
+		maxRoomSize = 7;
+		minRoomSize = 3;
+		x1 = 0;
+		y1 = 0;
+		x2 = 0;
+		y2 = 0;
+		return this;
+	}
+	
 	public FieldGenerator withSeed(long seed) {
 		random.setSeed(seed);
 		return this;
 	}
 	
+	/**
+	 * Attaches a listener for phase timings and counters, or detaches it if null.
+	 */
+	public FieldGenerator withListener(GenerationListener listener) {
+		this.listener = listener;
+		return this;
+	}
+	
+	/**
+	 * @return the counters from the most recent run. Reused by the next run.
+	 */
+	public GenerationStats getStats() {
+		return stats;
+	}
+	
+	public FieldGenerator withPlacement(Placement placement) {
+		this.placement = placement;
+		return this;
+	}
+	
+	public FieldGenerator withRouting(Routing routing) {
+		this.routing = routing;
+		return this;
+	}
+	
 	public FieldGenerator withRoomSize(int min, int max) {
 		this.maxRoomSize = max;
 		this.minRoomSize = min;
@@ -65,6 +203,18 @@ public class FieldGenerator {
 		return this;
 	}
 	
+	/**
+	 * Mixes designer-made rooms in with the generated ones. Each room has this chance of being a random pick
+	 * from the prefabs instead; prefabs too big for their cell are skipped in favour of a normal room. With no
+	 * prefabs (the default) no extra random numbers are drawn, so seeds keep generating the same dungeons.
+	 */
+	public FieldGenerator withPrefabs(float chance, RoomTemplate... templates) {
+		prefabChance = chance;
+		prefabs.clear();
+		for(RoomTemplate template : templates) prefabs.add(template);
+		return this;
+	}
+	
 	public FieldGenerator withEntrance(int x, int y) {
 		x1=x;
 		y1=y;
@@ -79,143 +229,481 @@ public class FieldGenerator {
 	
 	
 	public VectorField<DungeonTile> generate(int size) {
-		return generate(new VectorField<DungeonTile>(size, size));
+		return generate(DungeonTile.newField(size, size));
 	}
 	
 	public VectorField<DungeonTile> generate(VectorField<DungeonTile> in) {
+		return generateInto(new DungeonTileField(in)) ? in : null;
+	}
+	
+	/**
+	 * Generates straight into packed storage, without ever creating DungeonTile objects.
+	 */
+	public PackedTileField generatePacked(int size) {
+		return generate(new PackedTileField(size, size));
+	}
+	
+	public PackedTileField generate(PackedTileField in) {
+		return generateInto(in) ? in : null;
+	}
+	
+	/**
+	 * Generates a dungeon into any kind of tile storage.
+	 * @return false if generation failed and the field should be thrown away
+	 */
+	public boolean generateInto(ITileField in) {
+		start(in);
+		step(Long.MAX_VALUE);
+		return !stats.aborted;
+	}
+	
+	/**
+	 * Starts generating a dungeon a slice at a time, for callers who can't stop for the whole thing at once - a
+	 * server tick, say. Keep calling {@link #step(long)} until it returns true; after that the field is done,
+	 * unless {@link GenerationStats#aborted} says otherwise. Don't change settings or touch the field in between.
+	 * 
+	 * <p>Stepping all the way through gives exactly the same dungeon as {@link #generateInto(ITileField)}, however
+	 * the work gets sliced.
+	 */
+	public FieldGenerator start(ITileField in) {
+		runListener = this.listener; //Stays put even if someone swaps it mid-run
+		stats.reset();
+		totalWork = 0;
+		
 		field = in;
+		rooms.clear();
+		halls.clear();
+		doors.clear();
+		graph = null;
+		if (occupied==null || occupied.getWidth()!=in.getWidth() || occupied.getHeight()!=in.getHeight()) {
+			occupied = new OccupancyMask(in.getWidth(), in.getHeight());
+		} else {
+			occupied.clear();
+		}
 		if (palettes.isEmpty()) palettes.add("normal");
 		
 		if (x1==x2 && y1==y2) {
 			int centerX = in.getWidth()/2;
 			int centerY = in.getHeight()/2;
-			//kick the exits out to random sides of the box.
-			List<Vec2i> sides = new ArrayList<>();
-			sides.add(new Vec2i(centerX,      0));
-			sides.add(new Vec2i(     0, centerY));
-			sides.add(new Vec2i(centerX, in.getHeight()-1));
-			sides.add(new Vec2i(in.getWidth()-1, centerY));
-			
-			Vec2i p1 = sides.get(random.nextInt(sides.size()));
-			Vec2i p2 = sides.get(random.nextInt(sides.size()));
-			x1=p1.x;
-			y1=p1.y;
-			x2=p2.x;
-			y2=p2.y;
+			//kick the exits out to random sides of the box: top, left, bottom, right.
+			int side1 = random.nextInt(4);
+			int side2 = random.nextInt(4);
+			x1 = sideX(side1, centerX, in.getWidth());
+			y1 = sideY(side1, centerY, in.getHeight());
+			x2 = sideX(side2, centerX, in.getWidth());
+			y2 = sideY(side2, centerY, in.getHeight());
 		}
 		
 		int dungeonSize = in.getWidth();
 		int initialCellSize = maxRoomSize;
-		int cellSize = initialCellSize;
+		cellSize = initialCellSize;
 		for(int i=0;i<initialCellSize; i++) {
 			cellSize = initialCellSize;
 			while (dungeonSize%cellSize>i && cellSize<initialCellSize*2) cellSize++;
 			if (dungeonSize%cellSize<=i) break;
 		}
+		cellsAcross = dungeonSize / cellSize;
 		
-		int cellsAcross = dungeonSize / cellSize;
+		stage = Stage.SETUP;
+		cursor = 0;
+		return this;
+	}
+	
+	/**
+	 * Does as much of the dungeon started by {@link #start(ITileField)} as fits in the budget, then returns. Work
+	 * is checked against the clock after every room, hallway attempt or row of tiles, so a step overruns by at
+	 * most one of those. Every call makes some progress, however small the budget.
+	 * @param nanosBudget how long this step may take, or Long.MAX_VALUE to run to the end
+	 * @return true once the dungeon is finished (or aborted by the listener)
+	 */
+	public boolean step(long nanosBudget) {
+		if (stage==Stage.IDLE) throw new IllegalStateException("Nothing to step; call start first");
+		if (stage==Stage.DONE) return true;
+		budget = nanosBudget;
+		boolean timed = nanosBudget!=Long.MAX_VALUE || runListener!=null;
+		stepStart = (timed) ? System.nanoTime() : 0;
+		phaseClock = stepStart;
 		
-		List<Room> disconnected = new ArrayList<>();
-		for(int y=0; y<cellsAcross; y++) {
-			for(int x=0; x<cellsAcross; x++) {
-				int width = random.nextInt(maxRoomSize-minRoomSize)+minRoomSize;
-				int height = random.nextInt(maxRoomSize-minRoomSize)+minRoomSize;
-				int wiggleX = (cellSize)-width;
-				int roomX = random.nextInt(wiggleX);
-				int wiggleY = (cellSize)-height;
-				int roomY = random.nextInt(wiggleY);
-				Room room = new Room(roomX + (x*cellSize), roomY + (y*cellSize), width, height);
-				rooms.add(room);
-				disconnected.add(room);
-				plotRoom(room);
+		while(stage!=Stage.DONE) {
+			switch(stage) {
+			case SETUP: stepSetup(); break;
+			case PLACEMENT: stepPlacement(); break;
+			case PAIRING: stepPairing(); break;
+			case CONNECTION: stepConnection(); break;
+			case CULLING: stepCulling(); break;
+			default: throw new IllegalStateException(stage.name());
+			}
+			if (outOfTime()) break;
+		}
+		
+		if (stage!=Stage.DONE && runListener!=null) {
+			long now = System.nanoTime();
+			phaseWork += now-phaseClock;
+			totalWork += now-stepStart;
+		}
+		return stage==Stage.DONE;
+	}
+	
+	/**
+	 * @return how far along the current run is. IDLE if nothing has been started since the last reset.
+	 */
+	public Stage getStage() {
+		return stage;
+	}
+	
+	private boolean outOfTime() {
+		if (budget==Long.MAX_VALUE) return false;
+		return System.nanoTime()-stepStart >= budget;
+	}
+	
+	private void beginPhase(GenerationListener.Phase phase) {
+		if (runListener==null) return;
+		runListener.phaseStarted(phase);
+		phaseWork = 0;
+		phaseClock = System.nanoTime();
+	}
+	
+	/**
+	 * Phase times only count time spent inside step, so a dungeon spread over a hundred ticks reports how long it
+	 * actually took to build rather than how long it was waiting around.
+	 */
+	private long endPhase(GenerationListener.Phase phase) {
+		long nanos = phaseWork + System.nanoTime()-phaseClock;
+		runListener.phaseFinished(phase, nanos);
+		return nanos;
+	}
+	
+	/** Anything already in the field counts as built. One row per unit. */
+	private void stepSetup() {
+		while(cursor<field.getHeight()) {
+			int y = cursor++;
+			for(int x=0; x<field.getWidth(); x++) {
+				if (field.isOpen(x, y)) occupied.set(x, y);
 			}
+			if (outOfTime()) return;
 		}
 		
-		List<Room> connected = new ArrayList<>();
-		Room seed = disconnected.remove(random.nextInt(disconnected.size()));
-		connected.add(seed);
+		beginPhase(GenerationListener.Phase.PLACEMENT);
+		//Rooms are kept in cell order, so a room's index doubles as its cell's index - that's our spatial index.
+		if (placedScratch.length!=cellsAcross*cellsAcross) placedScratch = new Room[cellsAcross*cellsAcross];
+		if (placement!=Placement.SHARED_RANDOM) placementSeed = random.nextLong();
+		stage = Stage.PLACEMENT;
+		cursor = 0;
+	}
+	
+	private void stepPlacement() {
+		final Room[] placed = placedScratch;
+		if (placement==Placement.SHARED_RANDOM) {
+			while(cursor<placed.length) {
+				int i = cursor++;
+				Room room = makeRoom(random, cellSize, i % cellsAcross, i / cellsAcross);
+				placed[i] = room;
+				plotRoom(room);
+				occupied.setRect(room.x, room.y, room.width, room.height);
+				if (outOfTime()) return;
+			}
+		} else {
+			/*
+			 * Cells never overlap and a room never leaves its cell, so once each cell has its own Random,
+			 * there's nothing left for the cells to share and they can be plotted in any order.
+			 */
+			while(cursor<placed.length) {
+				int end = (budget==Long.MAX_VALUE) ? placed.length : Math.min(cursor+PLACEMENT_BATCH, placed.length);
+				final int across = cellsAcross;
+				final int finalCellSize = cellSize;
+				final long seed = placementSeed;
+				IntStream cells = IntStream.range(cursor, end);
+				if (placement==Placement.PARALLEL) cells = cells.parallel();
+				cells.forEach(i -> {
+					int x = i % across;
+					int y = i / across;
+					Room room = makeRoom(new Random(cellSeed(seed, x, y)), finalCellSize, x, y);
+					plotRoom(room);
+					placed[i] = room;
+				});
+				//The mask packs neighbouring tiles into the same words, so it's only safe to fill in from one thread
+				for(int i=cursor; i<end; i++) {
+					occupied.setRect(placed[i].x, placed[i].y, placed[i].width, placed[i].height);
+				}
+				cursor = end;
+				if (outOfTime()) return;
+			}
+		}
+		Collections.addAll(rooms, placed);
+		stats.rooms = placed.length;
 		
-		boolean didConnectInitial = false;
-		for(int i=0; i<15; i++) {
-			RoomPair pair = tryMakePair(cellSize, seed, disconnected);
-			if (tryConnectRooms(pair.a, pair.b)) {
-				didConnectInitial = true;
-				if (!connected.contains(pair.a)) connected.add(pair.a);
-				if (!connected.contains(pair.b)) connected.add(pair.b);
-				break;
+		if (runListener!=null) {
+			stats.placementNanos = endPhase(GenerationListener.Phase.PLACEMENT);
+			if (!runListener.keepGoing(GenerationListener.Phase.PLACEMENT, stats)) {
+				abort();
+				return;
 			}
 		}
+		beginPhase(GenerationListener.Phase.CONNECTION);
 		
-		if (!didConnectInitial) {
-			return null; //POOP. How did we not connect the first two rooms? IN FIFTEEN TRIES? (Protip: this has literally never happened)
-			//If this actually happened, it'd probably be best to just bail on all data generated so far and call generate again.
+		/*
+		 * Connect rooms Kruskal-style: walk the candidate pairs (rooms close enough to each other) in random order,
+		 * and run a hallway wherever a pair straddles two components. Union-find keeps the component check
+		 * near-constant, and every room only ever gets paired with a handful of neighbors, so this is roughly
+		 * linear in the number of rooms. Hallways are random, so a pair that failed once can work on a later pass.
+		 */
+		if (components==null || components.capacity()<placed.length) {
+			components = new UnionFind(placed.length);
+		} else {
+			components.reset(placed.length);
+		}
+		int needed = placed.length*2*CANDIDATE_WINDOW*(CANDIDATE_WINDOW+1)*2;
+		if (pairScratch.length<needed) pairScratch = new int[needed];
+		pairCount = 0;
+		stage = Stage.PAIRING;
+		cursor = 0;
+	}
+	
+	/** Finds the candidate pairs one row of cells at a time, then shuffles them a block at a time. */
+	private void stepPairing() {
+		while(cursor<cellsAcross) {
+			pairCount = findCandidatePairs(placedScratch, cellsAcross, cellSize, cursor++, pairCount);
+			if (outOfTime()) return;
+		}
+		if (cursor==cellsAcross) {
+			stats.candidatePairs = pairCount;
+			shuffleIndex = pairCount-1;
+			cursor++;
 		}
 		
-		int iterations = 0;
-		while(iterations<MAX_CONNECT_ITERATIONS && !disconnected.isEmpty()) {
-			iterations++;
-			RoomPair pair = findRoomPair(cellSize, connected, disconnected);
-			if (tryConnectRooms(pair.a, pair.b)) {
-				if (!connected.contains(pair.a)) connected.add(pair.a);
-				if (!connected.contains(pair.b)) connected.add(pair.b);
-				disconnected.remove(pair.a);
-				disconnected.remove(pair.b);
+		int[] pairs = pairScratch;
+		while(shuffleIndex>0) {
+			int stop = Math.max(shuffleIndex-SHUFFLE_BATCH, 0);
+			for(int i=shuffleIndex; i>stop; i--) {
+				int j = random.nextInt(i+1);
+				int a = pairs[i*2];
+				int b = pairs[i*2+1];
+				pairs[i*2] = pairs[j*2];
+				pairs[i*2+1] = pairs[j*2+1];
+				pairs[j*2] = a;
+				pairs[j*2+1] = b;
 			}
+			shuffleIndex = stop;
+			if (outOfTime()) return;
 		}
 		
+		stage = Stage.CONNECTION;
+		pass = 0;
+		cursor = 0;
+	}
+	
+	private void stepConnection() {
+		final Room[] placed = placedScratch;
+		final int[] pairs = pairScratch;
+		while(pass<MAX_CONNECT_PASSES && components.getCount()>1) {
+			if (cursor==0) stats.connectPasses++;
+			while(cursor<pairCount) {
+				int a = pairs[cursor*2];
+				int b = pairs[cursor*2+1];
+				cursor++;
+				if (components.find(a)==components.find(b)) {
+					stats.pairsSkipped++;
+					continue;
+				}
+				stats.connectAttempts++;
+				//The first pass sticks to L-shaped routes so the router's winding halls can't get in their way; after
+				//that the router only has to bridge whatever groups are left.
+				if (tryConnectRooms(placed[a], placed[b], routing==Routing.ASTAR && pass>0)) {
+					components.union(a, b);
+				} else {
+					stats.failedConnects++;
+				}
+				if (cursor<pairCount && outOfTime()) return;
+			}
+			stats.componentsLeft = components.getCount();
+			if (runListener!=null && !runListener.keepGoing(GenerationListener.Phase.CONNECTION_PASS, stats)) {
+				abort();
+				return;
+			}
+			pass++;
+			cursor = 0;
+			if (outOfTime()) return;
+		}
+		stats.componentsLeft = components.getCount();
+		stats.tilesScanned = occupied.getScanned();
 		
-		//SANITY CHECKS - Uncull Faces
-		//int unculledFaces = 0;
-		for(int y=0; y<field.getHeight(); y++) {
+		if (runListener!=null) {
+			stats.connectionNanos = endPhase(GenerationListener.Phase.CONNECTION);
+			if (!runListener.keepGoing(GenerationListener.Phase.CONNECTION, stats)) {
+				abort();
+				return;
+			}
+		}
+		beginPhase(GenerationListener.Phase.CULLING);
+		stage = Stage.CULLING;
+		cursor = 0;
+	}
+	
+	/** SANITY CHECKS - Uncull Faces. One row per unit. */
+	private void stepCulling() {
+		while(cursor<field.getHeight()) {
+			int y = cursor++;
 			for(int x=0; x<field.getWidth(); x++) {
-				DungeonTile tile = field.get(x, y);
-				if (tile==null || tile.type==TileType.OOB) continue;
-				EnumSet<Cardinal> brokenExits = EnumSet.noneOf(Cardinal.class);
-				for(Cardinal dir : tile.exits) {
-					DungeonTile target = field.get(x+dir.xOfs(), y+dir.yOfs());
-					if (target==null || target.type==TileType.OOB) {
-						brokenExits.add(dir);
-						//unculledFaces++;
+				if (!field.isOpen(x, y)) continue;
+				int exits = field.getExits(x, y);
+				int brokenExits = 0;
+				for(Cardinal dir : Cardinal.VALUES) {
+					if ((exits & dir.bit())==0) continue;
+					if (!field.isOpen(x+dir.xOfs(), y+dir.yOfs())) {
+						brokenExits |= dir.bit();
 					}
 				}
-				tile.exits.removeAll(brokenExits);
+				if (brokenExits!=0) field.setExits(x, y, exits & ~brokenExits);
 			}
+			if (cursor<field.getHeight() && outOfTime()) return;
 		}
-		//System.out.println("Unculled Faces: "+unculledFaces);
 		//UNCULLED FACES NOW DOWN TO NONE O_O
 		
-		return in;
+		stage = Stage.DONE;
+		if (runListener!=null) {
+			stats.cullingNanos = endPhase(GenerationListener.Phase.CULLING);
+			stats.totalNanos = totalWork + System.nanoTime()-stepStart;
+			runListener.generationFinished(stats);
+		}
 	}
 	
-	private RoomPair tryMakePair(int cellSize, Room unconnected, List<Room> connectedRooms) {
-		List<Room> closeEnough = new ArrayList<>();
-		for(Room r : connectedRooms) {
-			int manhattan = Math.abs(unconnected.x - r.x) + Math.abs(unconnected.y - r.y);
-			if (manhattan < cellSize*2) closeEnough.add(r);
+	private static int sideX(int side, int centerX, int width) {
+		switch(side) {
+		case 1: return 0;
+		case 3: return width-1;
+		default: return centerX;
 		}
-		if (closeEnough.isEmpty()) return null;
-		
-		Room connectTo = closeEnough.get(random.nextInt(closeEnough.size()));
-		return new RoomPair(unconnected, connectTo);
 	}
 	
-	private RoomPair findRoomPair(int cellSize, List<Room> connectedRooms, List<Room> unconnectedRooms) {
-		Collections.shuffle(connectedRooms, random);
-		Collections.shuffle(unconnectedRooms, random);
-		
-		for(Room r : unconnectedRooms) {
-			RoomPair pair = tryMakePair(cellSize, r, connectedRooms);
-			if (pair!=null) return pair;
+	private static int sideY(int side, int centerY, int height) {
+		switch(side) {
+		case 0: return 0;
+		case 2: return height-1;
+		default: return centerY;
 		}
-		
-		return null;
+	}
+	
+	private void abort() {
+		stats.aborted = true;
+		stage = Stage.DONE;
+	}
+	
+	/**
+	 * @return the rooms placed by the last call to generate
+	 */
+	public List<Room> getRooms() {
+		return Collections.unmodifiableList(rooms);
+	}
+	
+	/**
+	 * @return the hallways run by the last call to generate. Each one has a Door at either end.
+	 */
+	public List<Hall> getHalls() {
+		return Collections.unmodifiableList(halls);
+	}
+	
+	/**
+	 * @return the doors made by the last call to generate, two per Hall
+	 */
+	public List<Door> getDoors() {
+		return Collections.unmodifiableList(doors);
+	}
+	
+	/**
+	 * Checks that every room and hall in the last dungeon generated can be walked to from the first room.
+	 */
+	public ReachabilityValidator.Result validate() {
+		if (field==null) throw new IllegalStateException("Nothing has been generated yet");
+		return new ReachabilityValidator(field).validate(rooms);
+	}
+	
+	/**
+	 * Gets the room-level navigation graph for the last dungeon generated. Built on first request and kept until
+	 * the next generate.
+	 */
+	public RoomGraph getGraph() {
+		if (graph==null) graph = new RoomGraph(rooms, halls);
+		return graph;
+	}
+	
+	private Room makeRoom(Random random, int cellSize, int cellX, int cellY) {
+		if (!prefabs.isEmpty() && random.nextFloat()<prefabChance) {
+			RoomTemplate prefab = prefabs.get(random.nextInt(prefabs.size()));
+			if (prefab.getWidth()<cellSize && prefab.getHeight()<cellSize) {
+				int roomX = random.nextInt(cellSize-prefab.getWidth());
+				int roomY = random.nextInt(cellSize-prefab.getHeight());
+				Room result = new Room(roomX + (cellX*cellSize), roomY + (cellY*cellSize), prefab.getWidth(), prefab.getHeight());
+				result.template = prefab;
+				return result;
+			}
+		}
+		int width = random.nextInt(maxRoomSize-minRoomSize)+minRoomSize;
+		int height = random.nextInt(maxRoomSize-minRoomSize)+minRoomSize;
+		int wiggleX = (cellSize)-width;
+		int roomX = random.nextInt(wiggleX);
+		int wiggleY = (cellSize)-height;
+		int roomY = random.nextInt(wiggleY);
+		return new Room(roomX + (cellX*cellSize), roomY + (cellY*cellSize), width, height);
+	}
+	
+	/**
+	 * Derives a well-mixed seed for one cell of a grid from a master seed. Neighboring cells get
+	 * unrelated seeds, and the same inputs always give the same seed.
+	 */
+	static long cellSeed(long seed, int x, int y) {
+		long h = seed + x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL;
+		//murmur3 fmix64
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	/**
+	 * Finds every pair of rooms which are close enough to run a hallway between, by looking at the cells
+	 * around each room. Rooms in orthogonally adjacent cells always count, so that no room is left without
+	 * candidates; beyond that, rooms count if their corners are less than two cells apart (Manhattan).
+	 * 
+	 * <p>Does one row of cells per call, so it can be spread over steps. The pairs land in pairScratch as room
+	 * indices, two per pair, each pair listed once; pairScratch has to be big enough already.
+	 * @param pairCount the number of pairs found in earlier rows
+	 * @return the number of pairs found so far, including this row
+	 */
+	private int findCandidatePairs(Room[] placed, int cellsAcross, int cellSize, int cy, int pairCount) {
+		int[] pairs = pairScratch;
+		int count = pairCount*2;
+		for(int cx=0; cx<cellsAcross; cx++) {
+			int a = cy*cellsAcross+cx;
+			Room ra = placed[a];
+			//Only look "forward" (later rows, or later in this row) so each pair turns up once
+			for(int dy=0; dy<=CANDIDATE_WINDOW; dy++) {
+				for(int dx=-CANDIDATE_WINDOW; dx<=CANDIDATE_WINDOW; dx++) {
+					if (dy==0 && dx<=0) continue;
+					int nx = cx+dx;
+					int ny = cy+dy;
+					if (nx<0 || nx>=cellsAcross || ny>=cellsAcross) continue;
+					int b = ny*cellsAcross+nx;
+					Room rb = placed[b];
+					boolean adjacent = Math.abs(dx)+dy==1;
+					int manhattan = Math.abs(ra.x - rb.x) + Math.abs(ra.y - rb.y);
+					if (adjacent || manhattan < cellSize*2) {
+						pairs[count++] = a;
+						pairs[count++] = b;
+					}
+				}
+			}
+		}
+		return count/2;
 	}
 	
 	/**
 	 * Gets a terminal which sits either vertically or horizontally (but not diagonally) adjacent to Room a,
-	 * and inclined towards Room b.
+	 * and inclined towards Room b. Lands in termX/termY rather than a new Vec2i, since this runs for every
+	 * connection attempt.
 	 */
-	private Vec2i getTerminal(Room a, Room b) {
+	private void getTerminal(Room a, Room b) {
 		int aCenterX = a.x+(a.width/2);
 		int aCenterY = a.y+(a.height/2);
 		int bCenterX = b.x+(b.width/2);
@@ -224,43 +712,35 @@ public class FieldGenerator {
 		int dx = bCenterX-aCenterX;
 		int dy = bCenterY-aCenterY;
 		
-		int xdir = (int)Math.signum(dx);
-		int ydir = (int)Math.signum(dy);
+		int xdir = Integer.signum(dx);
+		int ydir = Integer.signum(dy);
 		
 		if (Math.abs(dx)>Math.abs(dy)) {
 			//Node is going to be horizontally adjacent
-			int termX = (xdir>0) ? a.x+a.width : a.x-1;
-			int termY = a.y + random.nextInt(a.height);
-			return new Vec2i(termX, termY);
+			termX = (xdir>0) ? a.x+a.width : a.x-1;
+			termY = a.y + random.nextInt(a.height);
 		} else {
 			//Node is going to be vertically adjacent
-			int termX = a.x + random.nextInt(a.width);
-			int termY = (ydir>0) ? a.y+a.height : a.y-1;
-			return new Vec2i(termX, termY);
+			termX = a.x + random.nextInt(a.width);
+			termY = (ydir>0) ? a.y+a.height : a.y-1;
 		}
 	}
 	
-	private static Cardinal dirToRoom(Vec2i terminal, Room room) {
-		if (terminal.x<room.x) return Cardinal.EAST;
-		if (terminal.y<room.y) return Cardinal.SOUTH;
-		if (terminal.x>=room.x+room.width) return Cardinal.WEST;
+	private static Cardinal dirToRoom(int x, int y, Room room) {
+		if (x<room.x) return Cardinal.EAST;
+		if (y<room.y) return Cardinal.SOUTH;
+		if (x>=room.x+room.width) return Cardinal.WEST;
 		return Cardinal.NORTH;
 	}
 	
-	private boolean tryConnectRooms(Room a, Room b) {
-		int xdir = (int)Math.signum( (b.x+(b.width/2)) - (a.x+(a.width/2)) );
-		int ydir = (int)Math.signum( (b.y+(b.height/2)) - (a.y+(a.height/2)) );
-		
+	private boolean tryConnectRooms(Room a, Room b, boolean routeAround) {
 		//Based on the directions, find a terminal that's in sort of the right direction
-		Vec2i term1 = getTerminal(a, b);
-		Vec2i term2 = getTerminal(b, a);
-		
-		//Make sure this shit is shadowed
-		int x1 = term1.x;
-		int y1 = term1.y;
-		int x2 = term2.x;
-		int y2 = term2.y;
-		
+		getTerminal(a, b);
+		int x1 = termX;
+		int y1 = termY;
+		getTerminal(b, a);
+		int x2 = termX;
+		int y2 = termY;
 		
 		//int x1 = side(xdir, a.x, a.width);
 		//int y1 = side(ydir, a.y, a.height);
@@ -268,90 +748,126 @@ public class FieldGenerator {
 		//int x2 = side(-xdir, b.x, b.width);
 		//int y2 = side(-ydir, b.y, b.height);
 		
-		Vec2i riseFirst = new Vec2i(x1, y2);
-		Vec2i runFirst  = new Vec2i(x2, y1);
-		
-		Vec2i primary = null;
-		Vec2i secondary = null;
+		//Rise first turns at (x1, y2), run first at (x2, y1)
+		int primaryX, primaryY, secondaryX, secondaryY;
 		if (random.nextBoolean()) {
-			primary = riseFirst;
-			secondary = runFirst;
+			primaryX = x1;
+			primaryY = y2;
+			secondaryX = x2;
+			secondaryY = y1;
 		} else {
-			primary = runFirst;
-			secondary = riseFirst;
+			primaryX = x2;
+			primaryY = y1;
+			secondaryX = x1;
+			secondaryY = y2;
 		}
 		
-		if (line(x1,y1,primary.x,primary.y,true,a.palette) && line(primary.x,primary.y,x2,y2,true,a.palette)) {
-			line(x1,y1,primary.x,primary.y,false,a.palette);
-			line(primary.x,primary.y,x2,y2,false,a.palette);
+		if (claimRoute(x1,y1,primaryX,primaryY,x2,y2)) {
+			line(x1,y1,primaryX,primaryY,a.palette);
+			line(primaryX,primaryY,x2,y2,a.palette);
 			
 			//Fix the corner
-			DungeonTile corner = field.getOrCreate(primary.x, primary.y, DungeonTile::new);
-			Cardinal cornerTo1 = Cardinal.fromTo(primary, new Vec2i(x1,y1));
-			Cardinal cornerTo2 = Cardinal.fromTo(primary, new Vec2i(x2,y2));
-			if (x1!=primary.x && y1!=primary.y) corner.exits.add(cornerTo1);
-			if (x2!=primary.x && y2!=primary.y) corner.exits.add(cornerTo2);
-			DungeonTile neighbor1 = field.getOrCreate(primary.x+cornerTo1.xOfs(), primary.y+cornerTo1.yOfs(), DungeonTile::new);
-			neighbor1.exits.add(cornerTo1.cw().cw());
-			DungeonTile neighbor2 = field.getOrCreate(primary.x+cornerTo2.xOfs(), primary.y+cornerTo2.yOfs(), DungeonTile::new);
-			neighbor2.exits.add(cornerTo2.cw().cw());
-			
-			
-			//Make doors
-			DungeonTile door1 = field.getOrCreate(x1, y1, DungeonTile::new);
-			door1.type = TileType.DOOR;
-			Cardinal doorDir1 = dirToRoom(term1, a);
-			door1.exits.add(doorDir1);
-			DungeonTile roomToDoor1= field.getOrCreate(x1+doorDir1.xOfs(), y1+doorDir1.yOfs(), DungeonTile::new);
-			roomToDoor1.exits.add(doorDir1.cw().cw());
+			Cardinal cornerTo1 = Cardinal.fromTo(primaryX, primaryY, x1, y1);
+			Cardinal cornerTo2 = Cardinal.fromTo(primaryX, primaryY, x2, y2);
+			if (x1!=primaryX && y1!=primaryY) field.addExit(primaryX, primaryY, cornerTo1);
+			if (x2!=primaryX && y2!=primaryY) field.addExit(primaryX, primaryY, cornerTo2);
+			field.addExit(primaryX+cornerTo1.xOfs(), primaryY+cornerTo1.yOfs(), cornerTo1.opposite());
+			field.addExit(primaryX+cornerTo2.xOfs(), primaryY+cornerTo2.yOfs(), cornerTo2.opposite());
 			
-			DungeonTile door2 = field.getOrCreate(x2, y2, DungeonTile::new);
-			door2.type = TileType.DOOR;
-			Cardinal doorDir2 = dirToRoom(term2, b);
-			door2.exits.add(doorDir2);
-			DungeonTile roomToDoor2 = field.getOrCreate(x2+doorDir2.xOfs(), y2+doorDir2.yOfs(), DungeonTile::new);
-			roomToDoor2.exits.add(doorDir2.cw().cw());
-			//TODO: Add graph notation for the doors so they can be queried later
 			
+			makeDoors(a, x1, y1, b, x2, y2);
+			addHall(a, x1, y1, b, x2, y2, primaryX, primaryY);
 			return true;
-		} else if (line(x1,y1,secondary.x,secondary.y,true,a.palette) && line(secondary.x,secondary.y,x2,y2,true,a.palette)) {
-			line(x1,y1,secondary.x,secondary.y,false,a.palette);
-			line(secondary.x,secondary.y,x2,y2,false,a.palette);
+		} else if (claimRoute(x1,y1,secondaryX,secondaryY,x2,y2)) {
+			line(x1,y1,secondaryX,secondaryY,a.palette);
+			line(secondaryX,secondaryY,x2,y2,a.palette);
 			
 			//Fix the corner
-			DungeonTile corner = field.getOrCreate(secondary.x, secondary.y, DungeonTile::new);
-			Cardinal cornerTo1 = Cardinal.fromTo(secondary, new Vec2i(x1,y1));
-			Cardinal cornerTo2 = Cardinal.fromTo(secondary, new Vec2i(x2,y2));
-			if (x1!=secondary.x && y1!=secondary.y) corner.exits.add(cornerTo1);
-			if (x2!=secondary.x && y2!=secondary.y) corner.exits.add(cornerTo1);
-			corner.exits.add(cornerTo2);
-			DungeonTile neighbor1 = field.getOrCreate(secondary.x+cornerTo1.xOfs(), secondary.y+cornerTo1.yOfs(), DungeonTile::new);
-			neighbor1.exits.add(cornerTo1.cw().cw());
-			DungeonTile neighbor2 = field.getOrCreate(secondary.x+cornerTo2.xOfs(), secondary.y+cornerTo2.yOfs(), DungeonTile::new);
-			neighbor2.exits.add(cornerTo2.cw().cw());
+			Cardinal cornerTo1 = Cardinal.fromTo(secondaryX, secondaryY, x1, y1);
+			Cardinal cornerTo2 = Cardinal.fromTo(secondaryX, secondaryY, x2, y2);
+			if (x1!=secondaryX && y1!=secondaryY) field.addExit(secondaryX, secondaryY, cornerTo1);
+			if (x2!=secondaryX && y2!=secondaryY) field.addExit(secondaryX, secondaryY, cornerTo1);
+			field.addExit(secondaryX, secondaryY, cornerTo2);
+			field.addExit(secondaryX+cornerTo1.xOfs(), secondaryY+cornerTo1.yOfs(), cornerTo1.opposite());
+			field.addExit(secondaryX+cornerTo2.xOfs(), secondaryY+cornerTo2.yOfs(), cornerTo2.opposite());
 			
 			
-			//Make doors
-			DungeonTile door1 = field.getOrCreate(x1, y1, DungeonTile::new);
-			door1.type = TileType.DOOR;
-			Cardinal doorDir1 = dirToRoom(term1, a);
-			door1.exits.add(doorDir1);
-			DungeonTile roomToDoor1= field.getOrCreate(x1+doorDir1.xOfs(), y1+doorDir1.yOfs(), DungeonTile::new);
-			roomToDoor1.exits.add(doorDir1.cw().cw());
-			
-			DungeonTile door2 = field.getOrCreate(x2, y2, DungeonTile::new);
-			door2.type = TileType.DOOR;
-			Cardinal doorDir2 = dirToRoom(term2, b);
-			door2.exits.add(doorDir2);
-			DungeonTile roomToDoor2 = field.getOrCreate(x2+doorDir2.xOfs(), y2+doorDir2.yOfs(), DungeonTile::new);
-			roomToDoor2.exits.add(doorDir2.cw().cw());
-			
+			makeDoors(a, x1, y1, b, x2, y2);
+			addHall(a, x1, y1, b, x2, y2, secondaryX, secondaryY);
 			return true;
+		} else if (routeAround) {
+			return tryRouteAround(a, b);
 		} else {
 			return false;
 		}
 	}
 	
+	/**
+	 * Both L-shaped routes are blocked, so search for a way around, with the router free to put the doors on any
+	 * side. The window is a couple of cells past the box around the two rooms, which is plenty for getting round
+	 * a room or two and stops a boxed-in pair from costing more than a few thousand search steps.
+	 */
+	private boolean tryRouteAround(Room a, Room b) {
+		if (router==null) router = new CorridorRouter();
+		boolean found = router.route(occupied, a.x, a.y, a.width, a.height, b.x, b.y, b.width, b.height, maxRoomSize*2);
+		stats.routerSteps += router.getExpanded();
+		if (!found) return false;
+		
+		int[] xs = router.getPathX();
+		int[] ys = router.getPathY();
+		int length = router.getPathLength();
+		for(int i=0; i<length; i++) {
+			occupied.set(xs[i], ys[i]);
+			field.setType(xs[i], ys[i], TileType.HALLWAY);
+			if (i>0) {
+				Cardinal dir = Cardinal.fromDelta(xs[i]-xs[i-1], ys[i]-ys[i-1]);
+				field.addExit(xs[i-1], ys[i-1], dir);
+				field.addExit(xs[i], ys[i], dir.opposite());
+			}
+		}
+		
+		int x1 = xs[0];
+		int y1 = ys[0];
+		int x2 = xs[length-1];
+		int y2 = ys[length-1];
+		makeDoors(a, x1, y1, b, x2, y2);
+		Door doorA = new Door(x1, y1);
+		doorA.adjacentRoom = a;
+		Door doorB = new Door(x2, y2);
+		doorB.adjacentRoom = b;
+		Hall hall = new Hall(doorA, doorB);
+		hall.length = length-1;
+		doors.add(doorA);
+		doors.add(doorB);
+		halls.add(hall);
+		stats.routedConnects++;
+		return true;
+	}
+	
+	private void makeDoors(Room a, int x1, int y1, Room b, int x2, int y2) {
+		field.setType(x1, y1, TileType.DOOR);
+		Cardinal doorDir1 = dirToRoom(x1, y1, a);
+		field.addExit(x1, y1, doorDir1);
+		field.addExit(x1+doorDir1.xOfs(), y1+doorDir1.yOfs(), doorDir1.opposite());
+		
+		field.setType(x2, y2, TileType.DOOR);
+		Cardinal doorDir2 = dirToRoom(x2, y2, b);
+		field.addExit(x2, y2, doorDir2);
+		field.addExit(x2+doorDir2.xOfs(), y2+doorDir2.yOfs(), doorDir2.opposite());
+	}
+	
+	private void addHall(Room a, int x1, int y1, Room b, int x2, int y2, int cornerX, int cornerY) {
+		Door doorA = new Door(x1, y1);
+		doorA.adjacentRoom = a;
+		Door doorB = new Door(x2, y2);
+		doorB.adjacentRoom = b;
+		Hall hall = new Hall(doorA, doorB);
+		hall.length = Math.abs(cornerX-x1) + Math.abs(cornerY-y1) + Math.abs(x2-cornerX) + Math.abs(y2-cornerY);
+		doors.add(doorA);
+		doors.add(doorB);
+		halls.add(hall);
+	}
+	
 	/*
 	private boolean line(int x1, int y1, int x2, int y2, boolean simulate, String palette) {
 		//This actually is a bresenham line. DO NOT USE diagonals!
@@ -395,71 +911,75 @@ public class FieldGenerator {
 		return true;
 	}*/
 	
-	private boolean line(int x1, int y1, int x2, int y2, boolean simulate, String palette) {
+	/**
+	 * Claims both legs of an L-shaped route in the occupancy mask, or neither. This is the whole collision
+	 * check for a hallway - no tiles are looked at or created unless the route is clear.
+	 */
+	private boolean claimRoute(int x1, int y1, int cornerX, int cornerY, int x2, int y2) {
+		int mark = occupied.mark();
+		if (!occupied.claim(x1, y1, cornerX, cornerY)) return false;
+		if (cornerX!=x2 || cornerY!=y2) {
+			//The corner already belongs to the first leg, so the second one starts a step past it
+			int startX = cornerX + Integer.signum(x2-cornerX);
+			int startY = cornerY + Integer.signum(y2-cornerY);
+			if (!occupied.claim(startX, startY, x2, y2)) {
+				occupied.rollback(mark);
+				return false;
+			}
+		}
+		occupied.commit();
+		return true;
+	}
+	
+	/**
+	 * Carves a straight hallway. The route must already have been claimed, so there's nothing to check here.
+	 */
+	private void line(int x1, int y1, int x2, int y2, String palette) {
 		int dx = x2-x1;
 		int dy = y2-y1;
-		if (dx!=0 && dy!=0) return false;
+		if (dx!=0 && dy!=0) return;
 		int iterations = Math.max(Math.abs(dx), Math.abs(dy))+1;
-		dx = (int)Math.signum(dx);
-		dy = (int)Math.signum(dy);
+		dx = Integer.signum(dx);
+		dy = Integer.signum(dy);
+		//Every step goes the same way, so work the direction out once
+		Cardinal dir = Cardinal.fromDelta(dx, dy);
+		Cardinal back = dir.opposite();
 		int x = x1;
 		int y = y1;
 		int lastX = x;
 		int lastY = y;
 		boolean firstIter = true;
 		for(int i=0; i<iterations; i++) {
-			DungeonTile tile = field.getOrCreate(x, y, DungeonTile::new);
-			if (tile.type!=null && tile.type!=TileType.OOB && simulate) return false;
-			if (!simulate) {
-				tile.type = TileType.HALLWAY;
+			field.setType(x, y, TileType.HALLWAY);
 			
-				if (!firstIter) {
-					Cardinal dir = Cardinal.fromTo(new Vec2i(lastX, lastY), new Vec2i(x, y));
-					Cardinal back = dir.cw().cw();
-					DungeonTile lastTile = field.getOrCreate(lastX, lastY, DungeonTile::new);
-					lastTile.exits.add(dir);
-					tile.exits.add(back);
-				} else {
-					//tile.type = TileType.MARKER_A;
-				}
+			if (!firstIter) {
+				field.addExit(lastX, lastY, dir);
+				field.addExit(x, y, back);
+			} else {
+				//tile.type = TileType.MARKER_A;
 			}
 			firstIter = false;
 			lastX = x;
 			lastY = y;
-			if (x==x2 && y==y2) return true;
+			if (x==x2 && y==y2) return;
 			x += dx;
 			y += dy;
 		}
-		return true;
 	}
 	
 	
+	/**
+	 * Room shapes repeat endlessly, so every shape is worked out once as a RoomTemplate and copied in from there.
+	 */
 	private void plotRoom(Room r) {
-		for(int y=0; y<r.height; y++) {
-			for(int x=0; x<r.width; x++) {
-				DungeonTile tile = field.getOrCreate(r.x+x, r.y+y, DungeonTile::new);
-				tile.exits = EnumSet.allOf(Cardinal.class);
-				if (x==0) tile.exits.remove(Cardinal.WEST);
-				if (x==r.width-1) tile.exits.remove(Cardinal.EAST);
-				if (y==0) tile.exits.remove(Cardinal.NORTH);
-				if (y==r.height-1) tile.exits.remove(Cardinal.SOUTH);
-				tile.palette = r.palette;
-				tile.type = TileType.ROOM;
-			}
-		}
-	}
-	
-	private static class RoomPair {
-		public Room a;
-		public Room b;
-		
-		public RoomPair(Room a, Room b) {
-			this.a = a; this.b = b;
-		}
+		RoomTemplate template = (r.template!=null) ? r.template : RoomTemplate.rectangle(r.width, r.height);
+		template.stamp(field, r.x, r.y, r.palette);
 	}
 	
 	public static class Room {
 		public String palette;
+		/** Where this room's tiles come from, if it's a prefab. Null for a plain rectangle. */
+		public RoomTemplate template;
 		public int x = 0;
 		public int y = 0;
 		public int width = 1;
@@ -488,6 +1008,8 @@ public class FieldGenerator {
 	public static class Hall {
 		Door a;
 		Door b;
+		/** Steps from one door to the other */
+		public int length = 0;
 		public Hall() {}
 		public Hall(Door a, Door b) {
 			this.a = a;
@@ -500,5 +1022,8 @@ public class FieldGenerator {
 		public Door doorFrom(Door origin) {
 			return (a.equals(origin)) ? b : a;
 		}
+		
+		public Door getA() { return a; }
+		public Door getB() { return b; }
 	}
 }
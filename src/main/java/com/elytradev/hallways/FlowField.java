@@ -0,0 +1,337 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.Arrays;
+
+/**
+ * Distance-and-direction map toward one or more source tiles, for lots of agents heading to the same places.
+ * One breadth-first pass over the tile exits fills in every reachable tile; after that, any agent can look up
+ * which way to step in constant time instead of running its own search.
+ * 
+ * <p>Each tile packs into one int: the step count in the high bits and the way to go in the low three bits (a
+ * Cardinal ordinal, or {@link #DIR_HERE} on a source tile). Unreachable tiles are {@link #UNREACHED}.
+ * 
+ * <p>When the dungeon changes, report the tiles with {@link #tileChanged(int, int)} and call {@link #update()}.
+ * Only tiles whose route actually went through a change get redone, which for a door closing in a big dungeon
+ * is usually a tiny fraction of the map.
+ * 
+ * <p>Not threadsafe. Reading from several threads is fine as long as nobody's updating.
+ */
+public class FlowField {
+	public static final int UNREACHED = -1;
+	public static final int DIR_BITS = 3;
+	public static final int DIR_MASK = (1 << DIR_BITS) - 1;
+	/** Direction value for a source tile, where there's nowhere left to go */
+	public static final int DIR_HERE = 4;
+	
+	private static final int[] DX = { 0, 1, 0, -1 };
+	private static final int[] DY = { -1, 0, 1, 0 };
+	private static final Cardinal[] DIRS = Cardinal.values();
+	
+	private final ITileField field;
+	private final int width;
+	private final int height;
+	private final int[] flow;
+	
+	private final boolean[] source;
+	private int[] sources = new int[4];
+	private int sourceCount = 0;
+	
+	/** Tiles reported changed since the last update */
+	private final boolean[] changed;
+	private int[] changedList = new int[16];
+	private int changedCount = 0;
+	
+	//Scratch for the searches
+	private final int[] queue;
+	private final boolean[] queued;
+	private int queueHead = 0;
+	private int queueSize = 0;
+	private final int[] invalid;
+	private int invalidCount = 0;
+	
+	public FlowField(ITileField field) {
+		this.field = field;
+		this.width = field.getWidth();
+		this.height = field.getHeight();
+		int size = width*height;
+		flow = new int[size];
+		source = new boolean[size];
+		changed = new boolean[size];
+		queue = new int[size];
+		queued = new boolean[size];
+		invalid = new int[size];
+		Arrays.fill(flow, UNREACHED);
+	}
+	
+	public ITileField getField() { return field; }
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	
+	/**
+	 * Marks a tile as somewhere agents want to get to. Takes effect on the next compute or update.
+	 */
+	public FlowField withSource(int x, int y) {
+		if (!field.isInBounds(x, y)) return this;
+		int i = y*width + x;
+		if (source[i]) return this;
+		source[i] = true;
+		if (sourceCount>=sources.length) sources = Arrays.copyOf(sources, sources.length*2);
+		sources[sourceCount++] = i;
+		markChanged(i);
+		return this;
+	}
+	
+	public FlowField removeSource(int x, int y) {
+		if (!field.isInBounds(x, y)) return this;
+		int i = y*width + x;
+		if (!source[i]) return this;
+		source[i] = false;
+		for(int j=0; j<sourceCount; j++) {
+			if (sources[j]==i) {
+				sources[j] = sources[--sourceCount];
+				break;
+			}
+		}
+		markChanged(i);
+		return this;
+	}
+	
+	public boolean isSource(int x, int y) {
+		return field.isInBounds(x, y) && source[y*width + x];
+	}
+	
+	/**
+	 * Throws away everything and redoes the whole map from the sources.
+	 */
+	public FlowField compute() {
+		Arrays.fill(flow, UNREACHED);
+		clearChanged();
+		invalidCount = 0;
+		int tail = 0;
+		for(int i=0; i<sourceCount; i++) {
+			int s = sources[i];
+			if (!isOpen(s)) continue;
+			flow[s] = DIR_HERE;
+			queue[tail++] = s;
+		}
+		
+		//Plain BFS: every step costs the same, so the first time we reach a tile is the shortest way
+		int head = 0;
+		while(head<tail) {
+			int cur = queue[head++];
+			int next = (flow[cur] >>> DIR_BITS) + 1;
+			int cx = cur % width;
+			int cy = cur / width;
+			for(int d=0; d<4; d++) {
+				int nx = cx+DX[d];
+				int ny = cy+DY[d];
+				if (nx<0 || ny<0 || nx>=width || ny>=height) continue;
+				int n = ny*width + nx;
+				if (flow[n]!=UNREACHED) continue;
+				int back = (d+2) & 3;
+				if (!canStep(n, back)) continue;
+				flow[n] = (next << DIR_BITS) | back;
+				queue[tail++] = n;
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * Tells the flow field that a tile's type or exits have changed. Takes effect on the next update.
+	 */
+	public void tileChanged(int x, int y) {
+		if (!field.isInBounds(x, y)) return;
+		markChanged(y*width + x);
+	}
+	
+	/**
+	 * Fixes up the map after tiles changed, without starting from scratch. First every tile whose route led
+	 * through something that changed is knocked out, then the hole is filled back in from its edges.
+	 */
+	public FlowField update() {
+		if (changedCount==0) return this;
+		
+		//Knock out the changed tiles, plus any neighbour whose step into one of them isn't valid any more
+		invalidCount = 0;
+		for(int i=0; i<changedCount; i++) {
+			int c = changedList[i];
+			invalidate(c);
+			int cx = c % width;
+			int cy = c / width;
+			for(int d=0; d<4; d++) {
+				int nx = cx+DX[d];
+				int ny = cy+DY[d];
+				if (nx<0 || ny<0 || nx>=width || ny>=height) continue;
+				int n = ny*width + nx;
+				int f = flow[n];
+				if (f==UNREACHED || (f & DIR_MASK)==DIR_HERE) continue;
+				if (!canStep(n, f & DIR_MASK)) invalidate(n);
+			}
+		}
+		//...and everything downstream of those. The invalid list doubles as the queue here.
+		for(int head=0; head<invalidCount; head++) {
+			int cur = invalid[head];
+			int cx = cur % width;
+			int cy = cur / width;
+			for(int d=0; d<4; d++) {
+				int nx = cx+DX[d];
+				int ny = cy+DY[d];
+				if (nx<0 || ny<0 || nx>=width || ny>=height) continue;
+				int n = ny*width + nx;
+				int f = flow[n];
+				if (f!=UNREACHED && (f & DIR_MASK)==((d+2) & 3)) invalidate(n);
+			}
+		}
+		
+		//Fill back in. Seeds are the sources, plus every surviving tile next to a knocked-out or changed tile.
+		//Changed tiles count even if they were never reached, since they might have just opened up.
+		for(int i=0; i<sourceCount; i++) {
+			int s = sources[i];
+			if (!isOpen(s)) continue;
+			flow[s] = DIR_HERE;
+			enqueue(s);
+		}
+		for(int i=0; i<invalidCount+changedCount; i++) {
+			int cur = (i<invalidCount) ? invalid[i] : changedList[i-invalidCount];
+			int cx = cur % width;
+			int cy = cur / width;
+			for(int d=0; d<4; d++) {
+				int nx = cx+DX[d];
+				int ny = cy+DY[d];
+				if (nx<0 || ny<0 || nx>=width || ny>=height) continue;
+				int n = ny*width + nx;
+				if (flow[n]!=UNREACHED) enqueue(n);
+			}
+		}
+		
+		//Seeds can start at different distances, so this isn't a clean BFS any more. Relaxing in FIFO order until
+		//nothing improves still gets the right answer, and the seeds are all close in distance in practice.
+		while(queueSize>0) {
+			int cur = queue[queueHead];
+			queueHead = (queueHead+1==queue.length) ? 0 : queueHead+1;
+			queueSize--;
+			queued[cur] = false;
+			
+			int f = flow[cur];
+			if (f==UNREACHED) continue;
+			int next = (f >>> DIR_BITS) + 1;
+			int cx = cur % width;
+			int cy = cur / width;
+			for(int d=0; d<4; d++) {
+				int nx = cx+DX[d];
+				int ny = cy+DY[d];
+				if (nx<0 || ny<0 || nx>=width || ny>=height) continue;
+				int n = ny*width + nx;
+				int nf = flow[n];
+				if (nf!=UNREACHED && (nf >>> DIR_BITS)<=next) continue;
+				int back = (d+2) & 3;
+				if (!canStep(n, back)) continue;
+				flow[n] = (next << DIR_BITS) | back;
+				enqueue(n);
+			}
+		}
+		
+		clearChanged();
+		return this;
+	}
+	
+	/** @return how many tiles the last update had to redo */
+	public int getLastInvalidated() {
+		return invalidCount;
+	}
+	
+	private void invalidate(int i) {
+		if (flow[i]==UNREACHED) return;
+		flow[i] = UNREACHED;
+		invalid[invalidCount++] = i;
+	}
+	
+	private void enqueue(int i) {
+		if (queued[i]) return;
+		queued[i] = true;
+		int tail = queueHead+queueSize;
+		if (tail>=queue.length) tail -= queue.length;
+		queue[tail] = i;
+		queueSize++;
+	}
+	
+	/** @return the raw packed value for this tile, or UNREACHED */
+	public int getPacked(int x, int y) {
+		if (!field.isInBounds(x, y)) return UNREACHED;
+		return flow[y*width + x];
+	}
+	
+	/** @return the number of steps from this tile to the nearest source, or -1 if there's no way there */
+	public int getDistance(int x, int y) {
+		int f = getPacked(x, y);
+		return (f==UNREACHED) ? -1 : f >>> DIR_BITS;
+	}
+	
+	/** @return which way to step to get closer to the nearest source, or null if there or there's no way there */
+	public Cardinal getDirection(int x, int y) {
+		int f = getPacked(x, y);
+		if (f==UNREACHED) return null;
+		int dir = f & DIR_MASK;
+		return (dir==DIR_HERE) ? null : DIRS[dir];
+	}
+	
+	/**
+	 * Gets the whole packed array, row by row, for agents that want to skip the bounds checks. Don't modify it.
+	 */
+	public int[] getPackedArray() {
+		return flow;
+	}
+	
+	private boolean isOpen(int i) {
+		return field.isOpen(i % width, i / width);
+	}
+	
+	/** Can an agent at tile i move one step in direction d? */
+	private boolean canStep(int i, int d) {
+		int x = i % width;
+		int y = i / width;
+		if (!field.isOpen(x, y) || (field.getExits(x, y) & (1 << d))==0) return false;
+		int nx = x+DX[d];
+		int ny = y+DY[d];
+		if (nx<0 || ny<0 || nx>=width || ny>=height) return false;
+		return field.isOpen(nx, ny);
+	}
+	
+	private void markChanged(int i) {
+		if (changed[i]) return;
+		changed[i] = true;
+		if (changedCount>=changedList.length) changedList = Arrays.copyOf(changedList, changedList.length*2);
+		changedList[changedCount++] = i;
+	}
+	
+	private void clearChanged() {
+		for(int i=0; i<changedCount; i++) changed[changedList[i]] = false;
+		changedCount = 0;
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+/**
+ * Gets told how a FieldGenerator is getting on. Every method does nothing by default, so implement only what
+ * you need. Attach one with {@link FieldGenerator#withListener(GenerationListener)}; without a listener the
+ * generator skips the clock reads entirely and only bumps a few int counters.
+ * 
+ * <p>Calls happen on the thread running generate.
+ */
+public interface GenerationListener {
+	
+	public enum Phase {
+		/** Placing and plotting rooms */
+		PLACEMENT,
+		/** Running hallways between rooms */
+		CONNECTION,
+		/** Removing exits which lead nowhere */
+		CULLING,
+		/**
+		 * Not a phase of its own: only ever handed to {@link GenerationListener#keepGoing(Phase, GenerationStats)
+		 * keepGoing}, after each pass over the room pairs while CONNECTION is still running. The counters are
+		 * partway there - later passes can still bring componentsLeft down.
+		 */
+		CONNECTION_PASS;
+	}
+	
+	default void phaseStarted(Phase phase) {}
+	
+	default void phaseFinished(Phase phase, long nanos) {}
+	
+	/**
+	 * Asked after placement (PLACEMENT), after every pass over the room pairs (CONNECTION_PASS), and once more
+	 * when connection is finished (CONNECTION), which is the only call where componentsLeft is final. Returning
+	 * false abandons the dungeon: generate returns null (or false), and {@link GenerationStats#aborted} is set.
+	 * Handy for throwing out a seed the moment it's clear it won't do.
+	 */
+	default boolean keepGoing(Phase phase, GenerationStats stats) { return true; }
+	
+	/**
+	 * Called once the dungeon is done. The stats object belongs to the generator and is reused by its next run,
+	 * so copy out anything you want to keep.
+	 */
+	default void generationFinished(GenerationStats stats) {}
+}
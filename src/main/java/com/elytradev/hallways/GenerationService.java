@@ -0,0 +1,159 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates batches of dungeons concurrently, reusing generators and field buffers between jobs.
+ * 
+ * <p>At most {@code parallelism} dungeons are generated at once. Jobs run on virtual threads when the JVM has
+ * them, and on a fixed pool of platform threads otherwise.
+ * 
+ * <p>Fields handed back through {@link #recycle(VectorField)} are cleared and reused for later jobs of the same
+ * size, which keeps a busy server from allocating a fresh multi-megabyte array for every dungeon. Don't touch a
+ * field after recycling it.
+ */
+public class GenerationService implements AutoCloseable {
+	private static final int DEFAULT_MAX_POOLED_FIELDS = 4;
+	
+	private final ExecutorService executor;
+	private final Semaphore permits;
+	private final int maxPooledFields;
+	private final ConcurrentLinkedQueue<FieldGenerator> generators = new ConcurrentLinkedQueue<>();
+	private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<VectorField<DungeonTile>>> fields = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, AtomicInteger> pooledCounts = new ConcurrentHashMap<>();
+	
+	public GenerationService() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	public GenerationService(int parallelism) {
+		this(parallelism, DEFAULT_MAX_POOLED_FIELDS);
+	}
+	
+	/**
+	 * @param parallelism     the most dungeons to generate at the same time
+	 * @param maxPooledFields the most spare fields to keep around for each dungeon size
+	 */
+	public GenerationService(int parallelism, int maxPooledFields) {
+		if (parallelism<1) throw new IllegalArgumentException("parallelism must be at least 1");
+		this.permits = new Semaphore(parallelism);
+		this.maxPooledFields = maxPooledFields;
+		ExecutorService virtual = createVirtualThreadExecutor();
+		this.executor = (virtual!=null) ? virtual : Executors.newFixedThreadPool(parallelism);
+	}
+	
+	/**
+	 * We build for Java 8, so virtual threads (Java 21+) can only be reached reflectively.
+	 * @return a virtual-thread-per-task executor, or null if this JVM doesn't have them
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Queues one dungeon. The future completes with the generated field, or with null if generation failed
+	 * (just like {@link FieldGenerator#generate(VectorField)}).
+	 */
+	public CompletableFuture<VectorField<DungeonTile>> submit(GenerationSpec spec) {
+		return CompletableFuture.supplyAsync(() -> generate(spec), executor);
+	}
+	
+	/**
+	 * Queues a batch of dungeons.
+	 * @return one future per spec, in the same order
+	 */
+	public List<CompletableFuture<VectorField<DungeonTile>>> submitAll(List<GenerationSpec> specs) {
+		List<CompletableFuture<VectorField<DungeonTile>>> result = new ArrayList<>(specs.size());
+		for(GenerationSpec spec : specs) {
+			result.add(submit(spec));
+		}
+		return result;
+	}
+	
+	/**
+	 * Hands a finished field back so its storage can be reused for a later dungeon of the same size. Snapshots
+	 * can't be written to, so they're ignored, and change tracking is switched off - nobody's going to drain it,
+	 * and a generator writing through it would pay for every tile.
+	 */
+	public void recycle(VectorField<DungeonTile> field) {
+		if (field==null || field.getWidth()!=field.getHeight() || field.isReadOnly()) return;
+		field.setChangeTracking(false);
+		int size = field.getWidth();
+		AtomicInteger count = pooledCounts.computeIfAbsent(size, it->new AtomicInteger());
+		if (count.incrementAndGet()>maxPooledFields) {
+			count.decrementAndGet();
+			return; //Pool's full, let the GC have it
+		}
+		fields.computeIfAbsent(size, it->new ConcurrentLinkedQueue<>()).offer(field);
+	}
+	
+	private VectorField<DungeonTile> takeField(int size) {
+		ConcurrentLinkedQueue<VectorField<DungeonTile>> pool = fields.get(size);
+		VectorField<DungeonTile> field = (pool==null) ? null : pool.poll();
+		if (field==null) return DungeonTile.newField(size, size);
+		pooledCounts.get(size).decrementAndGet();
+		field.clear();
+		return field;
+	}
+	
+	private VectorField<DungeonTile> generate(GenerationSpec spec) {
+		permits.acquireUninterruptibly();
+		FieldGenerator generator = generators.poll();
+		if (generator==null) generator = new FieldGenerator();
+		try {
+			VectorField<DungeonTile> field = takeField(spec.getSize());
+			VectorField<DungeonTile> result = spec.configure(generator.reset()).generate(field);
+			if (result==null) recycle(field);
+			return result;
+		} finally {
+			generator.reset(); //Don't keep the last dungeon's rooms reachable from the pool
+			generators.offer(generator);
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Stops accepting jobs. Jobs that were already submitted still run.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
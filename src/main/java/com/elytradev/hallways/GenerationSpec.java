@@ -0,0 +1,161 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.Arrays;
+
+/**
+ * Everything that decides what a generated dungeon looks like: seed, size, room sizes, palettes, entrance and
+ * exit. Two equal specs always generate the same dungeon, so this doubles as a key for anything that caches or
+ * stores dungeons.
+ * 
+ * <p>Immutable. The {@code with} methods hand back a modified copy.
+ */
+public final class GenerationSpec {
+	private final long seed;
+	private final int size;
+	private final int minRoomSize;
+	private final int maxRoomSize;
+	private final String[] palettes;
+	private final int entranceX;
+	private final int entranceY;
+	private final int exitX;
+	private final int exitY;
+	
+	public GenerationSpec(long seed, int size) {
+		this(seed, size, 3, 7, new String[0], 0, 0, 0, 0);
+	}
+	
+	private GenerationSpec(long seed, int size, int minRoomSize, int maxRoomSize, String[] palettes, int entranceX, int entranceY, int exitX, int exitY) {
+		this.seed = seed;
+		this.size = size;
+		this.minRoomSize = minRoomSize;
+		this.maxRoomSize = maxRoomSize;
+		this.palettes = palettes;
+		this.entranceX = entranceX;
+		this.entranceY = entranceY;
+		this.exitX = exitX;
+		this.exitY = exitY;
+	}
+	
+	public GenerationSpec withSeed(long seed) {
+		return new GenerationSpec(seed, size, minRoomSize, maxRoomSize, palettes, entranceX, entranceY, exitX, exitY);
+	}
+	
+	public GenerationSpec withSize(int size) {
+		return new GenerationSpec(seed, size, minRoomSize, maxRoomSize, palettes, entranceX, entranceY, exitX, exitY);
+	}
+	
+	public GenerationSpec withRoomSize(int min, int max) {
+		return new GenerationSpec(seed, size, min, max, palettes, entranceX, entranceY, exitX, exitY);
+	}
+	
+	/**
+	 * Palettes are a set as far as FieldGenerator is concerned, so they're sorted and deduplicated here to keep
+	 * equal configurations equal.
+	 */
+	public GenerationSpec withPalettes(String... ids) {
+		String[] sorted = Arrays.stream(ids).distinct().sorted().toArray(String[]::new);
+		return new GenerationSpec(seed, size, minRoomSize, maxRoomSize, sorted, entranceX, entranceY, exitX, exitY);
+	}
+	
+	public GenerationSpec withEntrance(int x, int y) {
+		return new GenerationSpec(seed, size, minRoomSize, maxRoomSize, palettes, x, y, exitX, exitY);
+	}
+	
+	public GenerationSpec withExit(int x, int y) {
+		return new GenerationSpec(seed, size, minRoomSize, maxRoomSize, palettes, entranceX, entranceY, x, y);
+	}
+	
+	public long getSeed() { return seed; }
+	public int getSize() { return size; }
+	public int getMinRoomSize() { return minRoomSize; }
+	public int getMaxRoomSize() { return maxRoomSize; }
+	public String[] getPalettes() { return palettes.clone(); }
+	public int getEntranceX() { return entranceX; }
+	public int getEntranceY() { return entranceY; }
+	public int getExitX() { return exitX; }
+	public int getExitY() { return exitY; }
+	
+	/**
+	 * Applies this spec to a generator. Doesn't reset it first; see {@link FieldGenerator#reset()}.
+	 */
+	public FieldGenerator configure(FieldGenerator generator) {
+		generator
+			.withSeed(seed)
+			.withRoomSize(minRoomSize, maxRoomSize)
+			.withEntrance(entranceX, entranceY)
+			.withExit(exitX, exitY);
+		if (palettes.length>0) generator.withPalettes(palettes);
+		return generator;
+	}
+	
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Long.hashCode(seed);
+		result = prime * result + size;
+		result = prime * result + minRoomSize;
+		result = prime * result + maxRoomSize;
+		result = prime * result + Arrays.hashCode(palettes);
+		result = prime * result + entranceX;
+		result = prime * result + entranceY;
+		result = prime * result + exitX;
+		result = prime * result + exitY;
+		return result;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		GenerationSpec other = (GenerationSpec) obj;
+		return
+				seed==other.seed &&
+				size==other.size &&
+				minRoomSize==other.minRoomSize &&
+				maxRoomSize==other.maxRoomSize &&
+				Arrays.equals(palettes, other.palettes) &&
+				entranceX==other.entranceX &&
+				entranceY==other.entranceY &&
+				exitX==other.exitX &&
+				exitY==other.exitY;
+	}
+	
+	@Override
+	public String toString() {
+		return "seed="+seed+", size="+size+", rooms="+minRoomSize+".."+maxRoomSize+", palettes="+Arrays.toString(palettes)
+				+", entrance="+entranceX+","+entranceY+", exit="+exitX+","+exitY;
+	}
+}
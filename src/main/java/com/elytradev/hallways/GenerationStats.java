@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+/**
+ * Counters and timings for one run of a FieldGenerator. Counters are always kept; timings are only filled in
+ * when a {@link GenerationListener} is attached, and are zero otherwise.
+ */
+public class GenerationStats {
+	/** Rooms placed */
+	public int rooms;
+	/** Pairs of rooms judged close enough to try a hallway between */
+	public int candidatePairs;
+	/** Times the connection phase walked the candidate pairs */
+	public int connectPasses;
+	/** Calls to tryConnectRooms */
+	public int connectAttempts;
+	/** Of those, how many found both routes blocked */
+	public int failedConnects;
+	/** Candidate pairs passed over because the two rooms were already connected some other way */
+	public int pairsSkipped;
+	/** Tiles checked for collisions while routing hallways */
+	public long tilesScanned;
+	/** Connections that needed the A* router because both L-shaped routes were blocked */
+	public int routedConnects;
+	/** Tiles the A* router expanded, over all its searches */
+	public long routerSteps;
+	/** Separate groups of rooms left once connection finished. 1 means every room is reachable. */
+	public int componentsLeft;
+	/** True if a listener called generation off partway through */
+	public boolean aborted;
+	
+	public long placementNanos;
+	public long connectionNanos;
+	public long cullingNanos;
+	public long totalNanos;
+	
+	public void reset() {
+		rooms = 0;
+		candidatePairs = 0;
+		connectPasses = 0;
+		connectAttempts = 0;
+		failedConnects = 0;
+		pairsSkipped = 0;
+		tilesScanned = 0;
+		routedConnects = 0;
+		routerSteps = 0;
+		componentsLeft = 0;
+		aborted = false;
+		placementNanos = 0;
+		connectionNanos = 0;
+		cullingNanos = 0;
+		totalNanos = 0;
+	}
+	
+	public GenerationStats copy() {
+		GenerationStats result = new GenerationStats();
+		result.rooms = rooms;
+		result.candidatePairs = candidatePairs;
+		result.connectPasses = connectPasses;
+		result.connectAttempts = connectAttempts;
+		result.failedConnects = failedConnects;
+		result.pairsSkipped = pairsSkipped;
+		result.tilesScanned = tilesScanned;
+		result.routedConnects = routedConnects;
+		result.routerSteps = routerSteps;
+		result.componentsLeft = componentsLeft;
+		result.aborted = aborted;
+		result.placementNanos = placementNanos;
+		result.connectionNanos = connectionNanos;
+		result.cullingNanos = cullingNanos;
+		result.totalNanos = totalNanos;
+		return result;
+	}
+	
+	@Override
+	public String toString() {
+		return "rooms="+rooms
+				+", candidatePairs="+candidatePairs
+				+", connectPasses="+connectPasses
+				+", connectAttempts="+connectAttempts
+				+", failedConnects="+failedConnects
+				+", pairsSkipped="+pairsSkipped
+				+", tilesScanned="+tilesScanned
+				+", routedConnects="+routedConnects
+				+", routerSteps="+routerSteps
+				+", componentsLeft="+componentsLeft
+				+(aborted ? ", aborted" : "")
+				+", placement="+(placementNanos/1000)+"us"
+				+", connection="+(connectionNanos/1000)+"us"
+				+", culling="+(cullingNanos/1000)+"us"
+				+", total="+(totalNanos/1000)+"us";
+	}
+}
@@ -24,6 +24,9 @@
 
 package com.elytradev.hallways;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.swing.JFrame;
 
 /**
@@ -42,6 +45,16 @@ public class HallwayGenerator {
 				.withRoomSize(3, 6)
 				.generate(128);
 		
+		if (args.length>0) {
+			//Headless: write the dungeon to the named PNG instead of opening a window
+			try {
+				DungeonImageExporter.writePng(selected, 9, new File(args[0]));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		
 		JFrame main = new JFrame("Hallway Simulator 20XX");
 		main.add(new VectorPanel(selected, 9));
 		main.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -40,6 +40,9 @@ public interface ITagCompound {
 	double getDouble(String key);
 	String getString(String key);
 	ITagCompound getTag(String key);
+	byte[] getByteArray(String key);
+	int[] getIntArray(String key);
+	long[] getLongArray(String key);
 	
 	void setByte(String key, byte value);
 	void setShort(String key, short value);
@@ -50,5 +53,8 @@ public interface ITagCompound {
 	void setFloat(String key, float value);
 	void setDouble(String key, double value);
 	void setString(String key, String value);
+	void setByteArray(String key, byte[] value);
+	void setIntArray(String key, int[] value);
+	void setLongArray(String key, long[] value);
 	
 }
@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+/**
+ * A grid of dungeon tiles which can be read and carved without caring how the tiles are stored.
+ * {@link FieldGenerator} and {@link VectorPanel} work against this, so they can run on a plain
+ * {@code VectorField<DungeonTile>} (through {@link DungeonTileField}) or directly on a {@link PackedTileField}.
+ * 
+ * <p>Like VectorField, reads outside the field come back empty (OOB, no exits) and writes outside the field
+ * are silently dropped.
+ */
+public interface ITileField {
+	int getWidth();
+	int getHeight();
+	
+	default boolean isInBounds(int x, int y) {
+		return
+				x>=0 &&
+				y>=0 &&
+				x<getWidth() &&
+				y<getHeight();
+	}
+	
+	/**
+	 * @return true if there's a tile here and it's something other than OOB
+	 */
+	boolean isOpen(int x, int y);
+	
+	/**
+	 * @return the type of the tile at this location, or OOB if there's no tile here
+	 */
+	TileType getType(int x, int y);
+	
+	/**
+	 * @return the exits of the tile at this location, as a bitmask of {@link Cardinal#bit()} values
+	 */
+	int getExits(int x, int y);
+	
+	/**
+	 * @return the palette of the tile at this location, or null if there's no tile or it has no palette
+	 */
+	String getPalette(int x, int y);
+	
+	void setType(int x, int y, TileType type);
+	void setExits(int x, int y, int exits);
+	void setPalette(int x, int y, String palette);
+	
+	/**
+	 * Sets everything about a tile at once. Storages that have to look a tile up before changing it override
+	 * this to do the lookup once instead of once per setter.
+	 */
+	default void setTile(int x, int y, TileType type, int exits, String palette) {
+		setExits(x, y, exits);
+		setPalette(x, y, palette);
+		setType(x, y, type);
+	}
+	
+	default void addExit(int x, int y, Cardinal dir) {
+		setExits(x, y, getExits(x, y) | dir.bit());
+	}
+	
+	default void removeExit(int x, int y, Cardinal dir) {
+		setExits(x, y, getExits(x, y) & ~dir.bit());
+	}
+	
+	/**
+	 * Gets a DungeonTile describing this location. Depending on the storage, this may be the stored
+	 * tile itself or a detached copy, so don't count on writes to it sticking - use the setters instead.
+	 * 
+	 * @return the tile at this location, or null if there's no tile here
+	 */
+	DungeonTile getTile(int x, int y);
+}
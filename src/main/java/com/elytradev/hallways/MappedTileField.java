@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.nio.IntBuffer;
+
+/**
+ * A read-only tile field backed directly by a buffer of packed tiles, typically a memory-mapped
+ * {@link DungeonStore} file. Tiles use the same int layout as {@link PackedTileField}, and nothing is copied
+ * out of the buffer until it's asked for.
+ * 
+ * <p>All the setters throw UnsupportedOperationException. Use {@link #toPacked()} for an editable copy.
+ */
+public class MappedTileField implements ITileField {
+	private final int width;
+	private final int height;
+	private final IntBuffer tiles;
+	/** Palette names by id, with slot zero null, same as PackedTileField */
+	private final String[] palettes;
+	
+	MappedTileField(int width, int height, IntBuffer tiles, String[] palettes) {
+		this.width = width;
+		this.height = height;
+		this.tiles = tiles;
+		this.palettes = palettes;
+	}
+	
+	public int getPacked(int x, int y) {
+		if (x<0 || y<0 || x>=width || y>=height) return PackedTileField.EMPTY;
+		return tiles.get(y*width+x);
+	}
+	
+	public String getPaletteName(int id) {
+		if (id<=0 || id>=palettes.length) return null;
+		return palettes[id];
+	}
+	
+	@Override
+	public int getWidth() { return width; }
+	@Override
+	public int getHeight() { return height; }
+	
+	@Override
+	public boolean isOpen(int x, int y) {
+		return PackedTileField.isOpen(getPacked(x, y));
+	}
+	
+	@Override
+	public TileType getType(int x, int y) {
+		return PackedTileField.typeOf(getPacked(x, y));
+	}
+	
+	@Override
+	public int getExits(int x, int y) {
+		return PackedTileField.exitsOf(getPacked(x, y));
+	}
+	
+	@Override
+	public String getPalette(int x, int y) {
+		return getPaletteName(PackedTileField.paletteIdOf(getPacked(x, y)));
+	}
+	
+	@Override
+	public void setType(int x, int y, TileType type) {
+		throw new UnsupportedOperationException("MappedTileField is read-only");
+	}
+	
+	@Override
+	public void setExits(int x, int y, int exits) {
+		throw new UnsupportedOperationException("MappedTileField is read-only");
+	}
+	
+	@Override
+	public void setPalette(int x, int y, String palette) {
+		throw new UnsupportedOperationException("MappedTileField is read-only");
+	}
+	
+	@Override
+	public DungeonTile getTile(int x, int y) {
+		int packed = getPacked(x, y);
+		if (packed==PackedTileField.EMPTY) return null;
+		DungeonTile result = new DungeonTile(PackedTileField.typeOf(packed));
+		result.setExitBits(PackedTileField.exitsOf(packed));
+		result.palette = getPaletteName(PackedTileField.paletteIdOf(packed));
+		return result;
+	}
+	
+	/**
+	 * Copies everything into a new, editable PackedTileField.
+	 */
+	public PackedTileField toPacked() {
+		PackedTileField result = new PackedTileField(width, height);
+		//Our palette ids are dense and start at 1, so interning them in order reproduces the same ids
+		for(int i=1; i<palettes.length; i++) result.internPalette(palettes[i]);
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) {
+				result.setPacked(x, y, tiles.get(y*width+x));
+			}
+		}
+		return result;
+	}
+	
+	public VectorField<DungeonTile> toVectorField() {
+		VectorField<DungeonTile> result = DungeonTile.newField(width, height);
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) {
+				DungeonTile tile = getTile(x, y);
+				if (tile!=null) result.put(x, y, tile);
+			}
+		}
+		return result;
+	}
+}
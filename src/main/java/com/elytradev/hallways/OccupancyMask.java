@@ -0,0 +1,226 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.Arrays;
+
+/**
+ * One bit per tile, set wherever something has been built. Each row starts on a fresh long, so a horizontal
+ * hallway segment can be tested or claimed 64 tiles at a time.
+ * 
+ * <p>Claims are recorded in an undo log until {@link #commit()}, so a route made of several segments can be
+ * claimed piece by piece and cleanly backed out with {@link #rollback(int)} if a later piece collides.
+ * 
+ * <p>Cells outside the mask always read as clear, and claiming them does nothing - matching the way
+ * VectorField quietly ignores out-of-bounds writes.
+ */
+final class OccupancyMask {
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	private final long[] bits;
+	/** (vertical ? 1 : 0, fixed coordinate, from, to) for every claimed segment since the last commit */
+	private int[] undo = new int[64];
+	private int undoSize = 0;
+	/** How many cells the collision checks have looked at, for GenerationStats */
+	private long scanned = 0;
+	
+	public OccupancyMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width+63) >>> 6;
+		this.bits = new long[wordsPerRow*height];
+	}
+	
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	
+	public void clear() {
+		Arrays.fill(bits, 0L);
+		undoSize = 0;
+		scanned = 0;
+	}
+	
+	public long getScanned() { return scanned; }
+	
+	public boolean isSet(int x, int y) {
+		if (x<0 || y<0 || x>=width || y>=height) return false;
+		return (bits[y*wordsPerRow + (x>>>6)] & (1L << x)) != 0;
+	}
+	
+	/** Marks one cell. Not recorded in the undo log. */
+	public void set(int x, int y) {
+		if (x<0 || y<0 || x>=width || y>=height) return;
+		bits[y*wordsPerRow + (x>>>6)] |= (1L << x);
+	}
+	
+	/** Marks a rectangle. Not recorded in the undo log. */
+	public void setRect(int x, int y, int w, int h) {
+		int x1 = Math.max(0, x);
+		int x2 = Math.min(width-1, x+w-1);
+		if (x1>x2) return;
+		for(int row=Math.max(0, y); row<Math.min(height, y+h); row++) {
+			fillRow(row, x1, x2, true);
+		}
+	}
+	
+	/**
+	 * @return true if nothing on row y between x1 and x2 (inclusive, either order) is set
+	 */
+	public boolean isRowClear(int y, int x1, int x2) {
+		if (y<0 || y>=height) return true;
+		int from = Math.max(0, Math.min(x1, x2));
+		int to = Math.min(width-1, Math.max(x1, x2));
+		if (from>to) return true;
+		scanned += to-from+1;
+		
+		int base = y*wordsPerRow;
+		int firstWord = from >>> 6;
+		int lastWord = to >>> 6;
+		long firstMask = -1L << from;        //shifts only use the low 6 bits
+		long lastMask = -1L >>> (63 - (to & 63));
+		if (firstWord==lastWord) return (bits[base+firstWord] & firstMask & lastMask) == 0;
+		
+		if ((bits[base+firstWord] & firstMask) != 0) return false;
+		for(int i=firstWord+1; i<lastWord; i++) {
+			if (bits[base+i] != 0) return false;
+		}
+		return (bits[base+lastWord] & lastMask) == 0;
+	}
+	
+	/**
+	 * @return true if nothing in column x between y1 and y2 (inclusive, either order) is set
+	 */
+	public boolean isColumnClear(int x, int y1, int y2) {
+		if (x<0 || x>=width) return true;
+		int from = Math.max(0, Math.min(y1, y2));
+		int to = Math.min(height-1, Math.max(y1, y2));
+		int word = x >>> 6;
+		long bit = 1L << x;
+		for(int y=from; y<=to; y++) {
+			scanned++;
+			if ((bits[y*wordsPerRow + word] & bit) != 0) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Claims an axis-aligned segment, if every cell in it is clear.
+	 * @return true if the segment was clear and is now claimed; false if it collided (and nothing changed)
+	 */
+	public boolean claim(int x1, int y1, int x2, int y2) {
+		if (y1==y2) {
+			if (!isRowClear(y1, x1, x2)) return false;
+			int from = Math.max(0, Math.min(x1, x2));
+			int to = Math.min(width-1, Math.max(x1, x2));
+			if (y1>=0 && y1<height && from<=to) {
+				fillRow(y1, from, to, true);
+				log(0, y1, from, to);
+			}
+			return true;
+		} else if (x1==x2) {
+			if (!isColumnClear(x1, y1, y2)) return false;
+			int from = Math.max(0, Math.min(y1, y2));
+			int to = Math.min(height-1, Math.max(y1, y2));
+			if (x1>=0 && x1<width && from<=to) {
+				fillColumn(x1, from, to, true);
+				log(1, x1, from, to);
+			}
+			return true;
+		} else {
+			return false; //Diagonal. Hallways don't do diagonal.
+		}
+	}
+	
+	/**
+	 * @return a point in the undo log that {@link #rollback(int)} can return to
+	 */
+	public int mark() {
+		return undoSize;
+	}
+	
+	/**
+	 * Releases every claim made since the mark.
+	 */
+	public void rollback(int mark) {
+		while(undoSize>mark) {
+			undoSize -= 4;
+			int fixed = undo[undoSize+1];
+			int from = undo[undoSize+2];
+			int to = undo[undoSize+3];
+			if (undo[undoSize]==0) {
+				fillRow(fixed, from, to, false);
+			} else {
+				fillColumn(fixed, from, to, false);
+			}
+		}
+	}
+	
+	/**
+	 * Forgets the undo log, making every claim so far permanent.
+	 */
+	public void commit() {
+		undoSize = 0;
+	}
+	
+	private void log(int vertical, int fixed, int from, int to) {
+		if (undoSize+4>undo.length) undo = Arrays.copyOf(undo, undo.length*2);
+		undo[undoSize++] = vertical;
+		undo[undoSize++] = fixed;
+		undo[undoSize++] = from;
+		undo[undoSize++] = to;
+	}
+	
+	/** from and to must already be in bounds and in order */
+	private void fillRow(int y, int from, int to, boolean value) {
+		int base = y*wordsPerRow;
+		int firstWord = from >>> 6;
+		int lastWord = to >>> 6;
+		for(int i=firstWord; i<=lastWord; i++) {
+			long mask = -1L;
+			if (i==firstWord) mask &= -1L << from;
+			if (i==lastWord) mask &= -1L >>> (63 - (to & 63));
+			if (value) {
+				bits[base+i] |= mask;
+			} else {
+				bits[base+i] &= ~mask;
+			}
+		}
+	}
+	
+	/** from and to must already be in bounds and in order */
+	private void fillColumn(int x, int from, int to, boolean value) {
+		int word = x >>> 6;
+		long bit = 1L << x;
+		for(int y=from; y<=to; y++) {
+			if (value) {
+				bits[y*wordsPerRow + word] |= bit;
+			} else {
+				bits[y*wordsPerRow + word] &= ~bit;
+			}
+		}
+	}
+}
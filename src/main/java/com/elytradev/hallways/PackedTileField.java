@@ -0,0 +1,311 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A tile field which stores each tile as a single int in one flat array, instead of as a DungeonTile object.
+ * A 2048x2048 dungeon costs 16MiB this way, against several hundred for a {@code VectorField<DungeonTile>}.
+ * 
+ * <p>Each int is laid out as:
+ * <ul>
+ *   <li>bits 0-3: exits, as {@link Cardinal#bit()} values
+ *   <li>bits 4-7: TileType ordinal plus one, so that a zero int ({@link #EMPTY}) means "no tile here"
+ *   <li>bits 8-23: palette id, interned per-field through {@link #internPalette(String)}. Zero means no palette.
+ * </ul>
+ * 
+ * <p>DungeonTiles handed out by {@link #getTile(int, int)} are detached copies. Writes to them don't make it
+ * back into the field unless they're handed back through {@link #putTile(int, int, DungeonTile)}.
+ */
+public class PackedTileField implements ITileField {
+	public static final int EMPTY = 0;
+	
+	public static final int EXIT_MASK = 0xF;
+	public static final int TYPE_SHIFT = 4;
+	public static final int TYPE_MASK = 0xF << TYPE_SHIFT;
+	public static final int PALETTE_SHIFT = 8;
+	public static final int PALETTE_MASK = 0xFFFF << PALETTE_SHIFT;
+	public static final int MAX_PALETTES = 0xFFFF;
+	
+	private static final TileType[] TYPES = TileType.values();
+	private static final int OOB_BITS = (TileType.OOB.ordinal()+1) << TYPE_SHIFT;
+	
+	private int width = 1;
+	private int height = 1;
+	private int[] cells;
+	/** Palette names by id. Slot zero is always null, so a zeroed palette field means "no palette". */
+	private final ArrayList<String> paletteNames = new ArrayList<>();
+	private final HashMap<String, Integer> paletteIds = new HashMap<>();
+	
+	public PackedTileField(int width, int height) {
+		this.width = width;
+		this.height = height;
+		if (this.width <1) this.width=1;
+		if (this.height<1) this.height=1;
+		if (this.width >65534) this.width=65534; //Same limits as VectorField
+		if (this.height>65534) this.height=65534;
+		cells = new int[this.width*this.height];
+		paletteNames.add(null);
+	}
+	
+	/**
+	 * Empties the field. The backing array and the palette table are kept, so a cleared field can be
+	 * regenerated into without allocating.
+	 */
+	public void clear() {
+		Arrays.fill(cells, EMPTY);
+	}
+	
+	public static int pack(TileType type, int exits, int paletteId) {
+		int typeBits = (type==null) ? OOB_BITS : (type.ordinal()+1) << TYPE_SHIFT;
+		return (exits & EXIT_MASK) | typeBits | ((paletteId << PALETTE_SHIFT) & PALETTE_MASK);
+	}
+	
+	public static int exitsOf(int packed) {
+		return packed & EXIT_MASK;
+	}
+	
+	/**
+	 * @return the TileType in a packed tile, or OOB for EMPTY
+	 */
+	public static TileType typeOf(int packed) {
+		int typeBits = (packed & TYPE_MASK) >>> TYPE_SHIFT;
+		if (typeBits==0 || typeBits>TYPES.length) return TileType.OOB;
+		return TYPES[typeBits-1];
+	}
+	
+	public static int paletteIdOf(int packed) {
+		return (packed & PALETTE_MASK) >>> PALETTE_SHIFT;
+	}
+	
+	/**
+	 * @return true if this packed tile is present and isn't OOB
+	 */
+	public static boolean isOpen(int packed) {
+		int typeBits = packed & TYPE_MASK;
+		return typeBits!=0 && typeBits!=OOB_BITS;
+	}
+	
+	/**
+	 * Gets a stable id for this palette name in this field, assigning a new one if needed.
+	 * @return the palette id, or 0 for a null palette
+	 */
+	public int internPalette(String palette) {
+		if (palette==null) return 0; //Checked outside the lock, since unpaletted tiles are the common case
+		synchronized(this) {
+			Integer id = paletteIds.get(palette);
+			if (id!=null) return id;
+			if (paletteNames.size()>MAX_PALETTES) throw new IllegalStateException("Too many palettes in one field (max "+MAX_PALETTES+")");
+			int result = paletteNames.size();
+			paletteNames.add(palette);
+			paletteIds.put(palette, result);
+			return result;
+		}
+	}
+	
+	public synchronized String getPaletteName(int id) {
+		if (id<=0 || id>=paletteNames.size()) return null;
+		return paletteNames.get(id);
+	}
+	
+	public synchronized int getPaletteCount() {
+		return paletteNames.size();
+	}
+	
+	public int getPacked(int x, int y) {
+		if (x<0 || y<0 || x>=width || y>=height) return EMPTY;
+		return cells[y*width+x];
+	}
+	
+	/**
+	 * @return whatever previously occupied the cell.
+	 */
+	public int setPacked(int x, int y, int packed) {
+		if (x<0 || y<0 || x>=width || y>=height) return EMPTY;
+		int index = y*width+x;
+		int result = cells[index];
+		cells[index] = packed;
+		return result;
+	}
+	
+	/**
+	 * Copies a block of packed tiles in, one System.arraycopy per row. Whatever hangs off the edge of the field
+	 * is dropped.
+	 * @param packed width*height packed tiles in row order
+	 */
+	public void setPackedRect(int x, int y, int width, int height, int[] packed) {
+		int left = Math.max(x, 0);
+		int right = Math.min(x+width, this.width);
+		if (left>=right) return;
+		for(int row=Math.max(y, 0); row<Math.min(y+height, this.height); row++) {
+			System.arraycopy(packed, (row-y)*width + (left-x), cells, row*this.width + left, right-left);
+		}
+	}
+	
+	@Override
+	public int getWidth() { return width; }
+	@Override
+	public int getHeight() { return height; }
+	
+	@Override
+	public boolean isInBounds(int x, int y) {
+		return
+				x>=0 &&
+				y>=0 &&
+				x<width &&
+				y<height;
+	}
+	
+	@Override
+	public boolean isOpen(int x, int y) {
+		return isOpen(getPacked(x, y));
+	}
+	
+	@Override
+	public TileType getType(int x, int y) {
+		return typeOf(getPacked(x, y));
+	}
+	
+	@Override
+	public int getExits(int x, int y) {
+		return exitsOf(getPacked(x, y));
+	}
+	
+	@Override
+	public String getPalette(int x, int y) {
+		return getPaletteName(paletteIdOf(getPacked(x, y)));
+	}
+	
+	/*
+	 * Setters on an EMPTY cell create an OOB tile first, just like getOrCreate(x, y, DungeonTile::new) would.
+	 */
+	
+	@Override
+	public void setType(int x, int y, TileType type) {
+		if (x<0 || y<0 || x>=width || y>=height) return;
+		int index = y*width+x;
+		int typeBits = (type==null) ? OOB_BITS : (type.ordinal()+1) << TYPE_SHIFT;
+		cells[index] = (cells[index] & ~TYPE_MASK) | typeBits;
+	}
+	
+	@Override
+	public void setExits(int x, int y, int exits) {
+		if (x<0 || y<0 || x>=width || y>=height) return;
+		int index = y*width+x;
+		int packed = cells[index];
+		if (packed==EMPTY) packed = OOB_BITS;
+		cells[index] = (packed & ~EXIT_MASK) | (exits & EXIT_MASK);
+	}
+	
+	@Override
+	public void addExit(int x, int y, Cardinal dir) {
+		if (x<0 || y<0 || x>=width || y>=height) return;
+		int index = y*width+x;
+		int packed = cells[index];
+		if (packed==EMPTY) packed = OOB_BITS;
+		cells[index] = packed | dir.bit();
+	}
+	
+	@Override
+	public void removeExit(int x, int y, Cardinal dir) {
+		if (x<0 || y<0 || x>=width || y>=height) return;
+		int index = y*width+x;
+		int packed = cells[index];
+		if (packed==EMPTY) packed = OOB_BITS;
+		cells[index] = packed & ~dir.bit();
+	}
+	
+	@Override
+	public void setPalette(int x, int y, String palette) {
+		if (x<0 || y<0 || x>=width || y>=height) return;
+		int id = internPalette(palette);
+		int index = y*width+x;
+		int packed = cells[index];
+		if (packed==EMPTY) packed = OOB_BITS;
+		cells[index] = (packed & ~PALETTE_MASK) | (id << PALETTE_SHIFT);
+	}
+	
+	@Override
+	public void setTile(int x, int y, TileType type, int exits, String palette) {
+		if (x<0 || y<0 || x>=width || y>=height) return;
+		cells[y*width+x] = pack(type, exits, internPalette(palette));
+	}
+	
+	/**
+	 * Builds a detached DungeonTile view of this location.
+	 * @return a new DungeonTile, or null if there's no tile here
+	 */
+	@Override
+	public DungeonTile getTile(int x, int y) {
+		int packed = getPacked(x, y);
+		if (packed==EMPTY) return null;
+		DungeonTile result = new DungeonTile(typeOf(packed));
+		result.setExitBits(exitsOf(packed));
+		result.palette = getPaletteName(paletteIdOf(packed));
+		return result;
+	}
+	
+	/**
+	 * Packs a DungeonTile into this location. A null tile clears the location.
+	 */
+	public void putTile(int x, int y, DungeonTile tile) {
+		if (tile==null) {
+			setPacked(x, y, EMPTY);
+		} else {
+			setPacked(x, y, pack(tile.type, tile.getExitBits(), internPalette(tile.palette)));
+		}
+	}
+	
+	/**
+	 * Unpacks every tile into a new {@code VectorField<DungeonTile>}, for callers which still want objects.
+	 */
+	public VectorField<DungeonTile> toVectorField() {
+		VectorField<DungeonTile> result = DungeonTile.newField(width, height);
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) {
+				DungeonTile tile = getTile(x, y);
+				if (tile!=null) result.put(x, y, tile);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Packs a whole {@code VectorField<DungeonTile>} into a new PackedTileField of the same size.
+	 */
+	public static PackedTileField copyOf(VectorField<DungeonTile> field) {
+		PackedTileField result = new PackedTileField(field.getWidth(), field.getHeight());
+		for(int y=0; y<field.getHeight(); y++) {
+			for(int x=0; x<field.getWidth(); x++) {
+				result.putTile(x, y, field.get(x, y));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.elytradev.hallways.FieldGenerator.Room;
+
+/**
+ * Checks which parts of a dungeon can actually be walked to. Instead of flood-filling one tile at a time, each
+ * row is kept as a bitboard (one bit per tile, 64 to a long) and reachability spreads along a whole word at once:
+ * shifted-and-masked fills for east and west, and plain ANDs between neighbouring rows for north and south.
+ * 
+ * <p>Movement follows the same rule as {@link FlowField}: you can step out of an open tile through one of its
+ * exits, into an open tile.
+ */
+public final class ReachabilityValidator {
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	
+	private final long[] open;
+	/** Bit set if the tile can be entered from its west neighbour, i.e. moving east */
+	private final long[] fromWest;
+	/** Bit set if the tile can be entered from its east neighbour, i.e. moving west */
+	private final long[] fromEast;
+	/** Bit set if the tile has a south exit. Needs the row below's open bits to mean anything. */
+	private final long[] southExit;
+	/** Bit set if the tile has a north exit */
+	private final long[] northExit;
+	private final int openCount;
+	
+	public ReachabilityValidator(ITileField field) {
+		width = field.getWidth();
+		height = field.getHeight();
+		wordsPerRow = (width+63) >>> 6;
+		int size = wordsPerRow*height;
+		open = new long[size];
+		fromWest = new long[size];
+		fromEast = new long[size];
+		southExit = new long[size];
+		northExit = new long[size];
+		
+		long[] eastExit = new long[size];
+		long[] westExit = new long[size];
+		PackedTileField packed = (field instanceof PackedTileField) ? (PackedTileField)field : null;
+		int count = 0;
+		for(int y=0; y<height; y++) {
+			int base = y*wordsPerRow;
+			for(int x=0; x<width; x++) {
+				int exits;
+				if (packed!=null) {
+					//Skips two interface calls and their bounds checks per tile, which is most of the setup time
+					int tile = packed.getPacked(x, y);
+					if (!PackedTileField.isOpen(tile)) continue;
+					exits = PackedTileField.exitsOf(tile);
+				} else {
+					if (!field.isOpen(x, y)) continue;
+					exits = field.getExits(x, y);
+				}
+				count++;
+				int word = base + (x >>> 6);
+				long bit = 1L << x;
+				open[word] |= bit;
+				if ((exits & Cardinal.NORTH.bit())!=0) northExit[word] |= bit;
+				if ((exits & Cardinal.EAST.bit())!=0)  eastExit[word]  |= bit;
+				if ((exits & Cardinal.SOUTH.bit())!=0) southExit[word] |= bit;
+				if ((exits & Cardinal.WEST.bit())!=0)  westExit[word]  |= bit;
+			}
+		}
+		openCount = count;
+		
+		//Shift the horizontal exits over by one tile, carrying across words, so they line up with the tile they lead into
+		for(int y=0; y<height; y++) {
+			int base = y*wordsPerRow;
+			for(int w=0; w<wordsPerRow; w++) {
+				int i = base+w;
+				long carryIn = (w>0) ? eastExit[i-1] >>> 63 : 0L;
+				fromWest[i] = ((eastExit[i] << 1) | carryIn) & open[i];
+				long carryDown = (w<wordsPerRow-1) ? westExit[i+1] << 63 : 0L;
+				fromEast[i] = ((westExit[i] >>> 1) | carryDown) & open[i];
+			}
+		}
+	}
+	
+	public int getOpenTiles() {
+		return openCount;
+	}
+	
+	/**
+	 * Spreads out from the first room's corner and reports what didn't get reached.
+	 */
+	public Result validate(List<Room> rooms) {
+		if (rooms.isEmpty()) return validate(-1, -1, rooms);
+		Room start = rooms.get(0);
+		return validate(start.x, start.y, rooms);
+	}
+	
+	/**
+	 * Spreads out from the given tile and reports what didn't get reached.
+	 * @param rooms rooms to check; a room counts as reached if its top-left tile is
+	 */
+	public Result validate(int startX, int startY, List<Room> rooms) {
+		long[] reached = new long[open.length];
+		if (startX>=0 && startY>=0 && startX<width && startY<height) {
+			int word = startY*wordsPerRow + (startX >>> 6);
+			reached[word] = open[word] & (1L << startX);
+			if (reached[word]!=0) fill(reached, startX, startY);
+		}
+		
+		int reachedCount = 0;
+		for(long l : reached) reachedCount += Long.bitCount(l);
+		
+		ArrayList<Room> disconnected = new ArrayList<>();
+		for(Room room : rooms) {
+			if (!isSet(reached, room.x, room.y)) disconnected.add(room);
+		}
+		return new Result(reached, reachedCount, openCount-reachedCount, disconnected);
+	}
+	
+	private void fill(long[] reached, int startX, int startY) {
+		//Work in 64x64 blocks: one word from each of 64 rows. Inside a block everything stays in a few registers'
+		//worth of longs, and a neighbouring block only gets queued when new bits on the shared edge have an exit
+		//leading across it.
+		int blocksAcross = wordsPerRow;
+		int blocksDown = (height+63) >>> 6;
+		int blockCount = blocksAcross*blocksDown;
+		int[] queue = new int[blockCount];
+		boolean[] queued = new boolean[blockCount];
+		long[] before = new long[64];
+		int head = 0;
+		int size = 1;
+		int first = (startY >>> 6)*blocksAcross + (startX >>> 6);
+		queue[0] = first;
+		queued[first] = true;
+		
+		while(size>0) {
+			int block = queue[head];
+			head = (head+1==blockCount) ? 0 : head+1;
+			size--;
+			queued[block] = false;
+			
+			int bx = block % blocksAcross;
+			int by = block / blocksAcross;
+			int y1 = by << 6;
+			int y2 = Math.min(height, y1+64) - 1;
+			
+			//Pull in anything leaking over the edges from the blocks around us
+			for(int y=y1; y<=y2; y++) {
+				int i = y*wordsPerRow + bx;
+				before[y-y1] = reached[i];
+				long in = 0L;
+				if (bx>0) in |= (reached[i-1] >>> 63) & fromWest[i];
+				if (bx<blocksAcross-1) in |= (reached[i+1] << 63) & fromEast[i];
+				reached[i] |= in;
+			}
+			if (y1>0) {
+				int above = (y1-1)*wordsPerRow + bx;
+				reached[above+wordsPerRow] |= reached[above] & southExit[above] & open[above+wordsPerRow];
+			}
+			if (y2<height-1) {
+				int below = (y2+1)*wordsPerRow + bx;
+				reached[below-wordsPerRow] |= reached[below] & northExit[below] & open[below-wordsPerRow];
+			}
+			
+			//Sweep down then up, spreading sideways on every row, until nothing moves
+			boolean changed = true;
+			while(changed) {
+				changed = false;
+				for(int y=y1; y<=y2; y++) {
+					int i = y*wordsPerRow + bx;
+					long g = reached[i];
+					if (y>y1) g |= reached[i-wordsPerRow] & southExit[i-wordsPerRow] & open[i];
+					g = fillWest(fillEast(g, fromWest[i]), fromEast[i]);
+					if (g!=reached[i]) {
+						reached[i] = g;
+						changed = true;
+					}
+				}
+				for(int y=y2; y>=y1; y--) {
+					int i = y*wordsPerRow + bx;
+					long g = reached[i];
+					if (y<y2) g |= reached[i+wordsPerRow] & northExit[i+wordsPerRow] & open[i];
+					g = fillWest(fillEast(g, fromWest[i]), fromEast[i]);
+					if (g!=reached[i]) {
+						reached[i] = g;
+						changed = true;
+					}
+				}
+			}
+			
+			//See which neighbours the new bits can get into
+			boolean west = false, east = false;
+			for(int y=y1; y<=y2; y++) {
+				int i = y*wordsPerRow + bx;
+				long gained = reached[i] & ~before[y-y1];
+				if (bx>0 && (gained & (fromEast[i-1] >>> 63))!=0) west = true;
+				if (bx<blocksAcross-1 && ((gained >>> 63) & fromWest[i+1])!=0) east = true;
+			}
+			int top = y1*wordsPerRow + bx;
+			boolean north = y1>0 && ((reached[top] & ~before[0]) & northExit[top] & open[top-wordsPerRow])!=0;
+			int bottom = y2*wordsPerRow + bx;
+			boolean south = y2<height-1 && ((reached[bottom] & ~before[y2-y1]) & southExit[bottom] & open[bottom+wordsPerRow])!=0;
+			
+			if (west) size = enqueue(queue, queued, block-1, head, size);
+			if (east) size = enqueue(queue, queued, block+1, head, size);
+			if (north) size = enqueue(queue, queued, block-blocksAcross, head, size);
+			if (south) size = enqueue(queue, queued, block+blocksAcross, head, size);
+		}
+	}
+	
+	private static int enqueue(int[] queue, boolean[] queued, int block, int head, int size) {
+		if (queued[block]) return size;
+		queued[block] = true;
+		queue[(head+size) % queue.length] = block;
+		return size+1;
+	}
+	
+	/**
+	 * Kogge-Stone occluded fill: every bit of g spreads upward through runs of set bits in p. Six steps covers a
+	 * whole word.
+	 */
+	private static long fillEast(long g, long p) {
+		g |= p & (g << 1);
+		p &= p << 1;
+		g |= p & (g << 2);
+		p &= p << 2;
+		g |= p & (g << 4);
+		p &= p << 4;
+		g |= p & (g << 8);
+		p &= p << 8;
+		g |= p & (g << 16);
+		p &= p << 16;
+		g |= p & (g << 32);
+		return g;
+	}
+	
+	private static long fillWest(long g, long p) {
+		g |= p & (g >>> 1);
+		p &= p >>> 1;
+		g |= p & (g >>> 2);
+		p &= p >>> 2;
+		g |= p & (g >>> 4);
+		p &= p >>> 4;
+		g |= p & (g >>> 8);
+		p &= p >>> 8;
+		g |= p & (g >>> 16);
+		p &= p >>> 16;
+		g |= p & (g >>> 32);
+		return g;
+	}
+	
+	private boolean isSet(long[] bits, int x, int y) {
+		if (x<0 || y<0 || x>=width || y>=height) return false;
+		return (bits[y*wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+	
+	public class Result {
+		private final long[] reached;
+		private final int reachedTiles;
+		private final int unreachableTiles;
+		private final List<Room> disconnected;
+		
+		private Result(long[] reached, int reachedTiles, int unreachableTiles, List<Room> disconnected) {
+			this.reached = reached;
+			this.reachedTiles = reachedTiles;
+			this.unreachableTiles = unreachableTiles;
+			this.disconnected = Collections.unmodifiableList(disconnected);
+		}
+		
+		/** @return true if every open tile can be walked to */
+		public boolean isFullyConnected() {
+			return unreachableTiles==0;
+		}
+		
+		public boolean isReachable(int x, int y) {
+			return isSet(reached, x, y);
+		}
+		
+		public int getReachedTiles() { return reachedTiles; }
+		public int getUnreachableTiles() { return unreachableTiles; }
+		public List<Room> getDisconnectedRooms() { return disconnected; }
+		
+		@Override
+		public String toString() {
+			return "reached="+reachedTiles+", unreachable="+unreachableTiles+", disconnectedRooms="+disconnected.size();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+/**
+ * A packed dungeon nobody can change, for handing one copy to any number of callers and threads at once - see
+ * {@link DungeonCache}. Tiles from {@link #getTile(int, int)} are detached copies, and the setters throw.
+ * {@link #toVectorField()} gives back an editable copy for anyone who wants to change it.
+ * 
+ * <p>Backed by either a PackedTileField or a {@link MappedTileField}; both already hold packed ints, so neither
+ * gets copied on the way in.
+ */
+public final class ReadOnlyTileField implements ITileField {
+	private final ITileField field;
+	private final PackedTileField packed;
+	private final MappedTileField mapped;
+	
+	/**
+	 * Wraps a field without copying it. Whoever made the field mustn't touch it afterwards.
+	 */
+	ReadOnlyTileField(PackedTileField field) {
+		this.field = field;
+		this.packed = field;
+		this.mapped = null;
+	}
+	
+	/**
+	 * Wraps a mapped field without copying it. Those can't be written to anyway.
+	 */
+	ReadOnlyTileField(MappedTileField field) {
+		this.field = field;
+		this.packed = null;
+		this.mapped = field;
+	}
+	
+	/**
+	 * Packs a copy of the field, so later edits to the original don't show up here.
+	 */
+	public static ReadOnlyTileField copyOf(VectorField<DungeonTile> field) {
+		return new ReadOnlyTileField(PackedTileField.copyOf(field));
+	}
+	
+	/**
+	 * Makes a field read-only, copying it only if it has to. PackedTileFields are taken over rather than
+	 * copied, so they mustn't be touched afterwards; anything already read-only is used as-is.
+	 */
+	static ReadOnlyTileField of(ITileField field) {
+		if (field instanceof ReadOnlyTileField) return (ReadOnlyTileField) field;
+		if (field instanceof PackedTileField) return new ReadOnlyTileField((PackedTileField) field);
+		if (field instanceof MappedTileField) return new ReadOnlyTileField((MappedTileField) field);
+		if (field instanceof DungeonTileField) return copyOf(((DungeonTileField) field).getField());
+		
+		PackedTileField result = new PackedTileField(field.getWidth(), field.getHeight());
+		for(int y=0; y<field.getHeight(); y++) {
+			for(int x=0; x<field.getWidth(); x++) {
+				DungeonTile tile = field.getTile(x, y);
+				if (tile!=null) result.putTile(x, y, tile);
+			}
+		}
+		return new ReadOnlyTileField(result);
+	}
+	
+	@Override
+	public int getWidth() { return field.getWidth(); }
+	@Override
+	public int getHeight() { return field.getHeight(); }
+	
+	public int getPacked(int x, int y) {
+		return (packed!=null) ? packed.getPacked(x, y) : mapped.getPacked(x, y);
+	}
+	
+	@Override
+	public boolean isOpen(int x, int y) {
+		return field.isOpen(x, y);
+	}
+	
+	@Override
+	public TileType getType(int x, int y) {
+		return field.getType(x, y);
+	}
+	
+	@Override
+	public int getExits(int x, int y) {
+		return field.getExits(x, y);
+	}
+	
+	@Override
+	public String getPalette(int x, int y) {
+		return field.getPalette(x, y);
+	}
+	
+	@Override
+	public DungeonTile getTile(int x, int y) {
+		return field.getTile(x, y);
+	}
+	
+	@Override
+	public void setType(int x, int y, TileType type) {
+		throw new UnsupportedOperationException("Field is read-only");
+	}
+	
+	@Override
+	public void setExits(int x, int y, int exits) {
+		throw new UnsupportedOperationException("Field is read-only");
+	}
+	
+	@Override
+	public void setPalette(int x, int y, String palette) {
+		throw new UnsupportedOperationException("Field is read-only");
+	}
+	
+	@Override
+	public void addExit(int x, int y, Cardinal dir) {
+		throw new UnsupportedOperationException("Field is read-only");
+	}
+	
+	@Override
+	public void removeExit(int x, int y, Cardinal dir) {
+		throw new UnsupportedOperationException("Field is read-only");
+	}
+	
+	/**
+	 * @return a new, editable copy of the dungeon
+	 */
+	public VectorField<DungeonTile> toVectorField() {
+		return (packed!=null) ? packed.toVectorField() : mapped.toVectorField();
+	}
+	
+	/**
+	 * Rough heap cost: four bytes a tile, plus the array header. Mapped tiles live in the page cache rather than
+	 * the heap, but they still take up memory, so they're counted the same.
+	 */
+	long weigh() {
+		return 16 + (long)field.getWidth()*field.getHeight()*4;
+	}
+}
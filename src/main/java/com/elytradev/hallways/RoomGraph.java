@@ -0,0 +1,435 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.elytradev.hallways.FieldGenerator.Door;
+import com.elytradev.hallways.FieldGenerator.Hall;
+import com.elytradev.hallways.FieldGenerator.Room;
+
+/**
+ * Room-level navigation graph for a generated dungeon. Rooms are nodes, numbered the same as
+ * {@link FieldGenerator#getRooms()}, and halls are edges, numbered the same as {@link FieldGenerator#getHalls()}.
+ * Adjacency is kept in flat int arrays (compressed rows) so walking it doesn't touch the Room objects at all.
+ * 
+ * <p>An edge costs the tile steps from the middle of one room, out its door, down the hall, and in to the middle
+ * of the other room. That makes straight-line (manhattan) distance between room middles a safe A* guess, so
+ * {@link #findPath(int, int)} always finds the cheapest route. Routes are cached, so asking again is a map lookup.
+ * 
+ * <p>The graph itself never changes once built and is safe to share between threads.
+ */
+public final class RoomGraph {
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+	private static final int BUCKET_SHIFT = 4;
+	
+	private final List<Room> rooms;
+	private final List<Hall> halls;
+	private final int roomCount;
+	/** Middle of each room, for the A* guess */
+	private final int[] centerX;
+	private final int[] centerY;
+	/** Edges for room n are edgeStart[n] until edgeStart[n+1] */
+	private final int[] edgeStart;
+	private final int[] edgeTarget;
+	private final int[] edgeCost;
+	private final int[] edgeHall;
+	
+	/** Coarse grid of which rooms overlap each 16x16 bucket, also compressed rows */
+	private final int bucketMinX;
+	private final int bucketMinY;
+	private final int bucketsAcross;
+	private final int bucketsDown;
+	private final int[] bucketStart;
+	private final int[] bucketRooms;
+	
+	private final int cacheSize;
+	private final LinkedHashMap<Long, int[]> cache;
+	private final ThreadLocal<Search> search;
+	
+	public RoomGraph(List<Room> rooms, List<Hall> halls) {
+		this(rooms, halls, DEFAULT_CACHE_SIZE);
+	}
+	
+	public RoomGraph(List<Room> rooms, List<Hall> halls, int cacheSize) {
+		//Take copies so a generator reusing its lists can't pull them out from under us
+		this.rooms = Arrays.asList(rooms.toArray(new Room[rooms.size()]));
+		this.halls = Arrays.asList(halls.toArray(new Hall[halls.size()]));
+		this.roomCount = rooms.size();
+		this.cacheSize = cacheSize;
+		
+		IdentityHashMap<Room, Integer> index = new IdentityHashMap<>();
+		centerX = new int[roomCount];
+		centerY = new int[roomCount];
+		for(int i=0; i<roomCount; i++) {
+			Room room = rooms.get(i);
+			index.put(room, i);
+			centerX[i] = room.x + room.width/2;
+			centerY[i] = room.y + room.height/2;
+		}
+		
+		//Count first, then fill, so each room's edges end up next to each other
+		int hallCount = halls.size();
+		int[] hallFrom = new int[hallCount];
+		int[] hallTo = new int[hallCount];
+		edgeStart = new int[roomCount+1];
+		for(int i=0; i<hallCount; i++) {
+			Hall hall = halls.get(i);
+			Integer from = index.get(hall.getA().adjacentRoom);
+			Integer to = index.get(hall.getB().adjacentRoom);
+			if (from==null || to==null) throw new IllegalArgumentException("Hall "+i+" leads to a room that isn't in the room list");
+			hallFrom[i] = from;
+			hallTo[i] = to;
+			edgeStart[from+1]++;
+			edgeStart[to+1]++;
+		}
+		for(int i=0; i<roomCount; i++) edgeStart[i+1] += edgeStart[i];
+		
+		edgeTarget = new int[hallCount*2];
+		edgeCost = new int[hallCount*2];
+		edgeHall = new int[hallCount*2];
+		int[] fill = Arrays.copyOf(edgeStart, roomCount);
+		for(int i=0; i<hallCount; i++) {
+			Hall hall = halls.get(i);
+			int from = hallFrom[i];
+			int to = hallTo[i];
+			int cost = stepsToDoor(from, hall.getA()) + hall.length + stepsToDoor(to, hall.getB());
+			
+			int e = fill[from]++;
+			edgeTarget[e] = to;
+			edgeCost[e] = cost;
+			edgeHall[e] = i;
+			
+			e = fill[to]++;
+			edgeTarget[e] = from;
+			edgeCost[e] = cost;
+			edgeHall[e] = i;
+		}
+		
+		//Bucket grid for roomAt
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for(Room room : rooms) {
+			minX = Math.min(minX, room.x);
+			minY = Math.min(minY, room.y);
+			maxX = Math.max(maxX, room.x+room.width-1);
+			maxY = Math.max(maxY, room.y+room.height-1);
+		}
+		if (roomCount==0) {
+			minX = 0; minY = 0; maxX = -1; maxY = -1;
+		}
+		bucketMinX = minX >> BUCKET_SHIFT;
+		bucketMinY = minY >> BUCKET_SHIFT;
+		bucketsAcross = Math.max(0, (maxX >> BUCKET_SHIFT) - bucketMinX + 1);
+		bucketsDown = Math.max(0, (maxY >> BUCKET_SHIFT) - bucketMinY + 1);
+		bucketStart = new int[bucketsAcross*bucketsDown + 1];
+		int[] inBuckets = null;
+		for(int pass=0; pass<2; pass++) {
+			int[] bucketFill = (pass==0) ? null : Arrays.copyOf(bucketStart, bucketStart.length-1);
+			for(int i=0; i<roomCount; i++) {
+				Room room = rooms.get(i);
+				int bx1 = (room.x >> BUCKET_SHIFT) - bucketMinX;
+				int by1 = (room.y >> BUCKET_SHIFT) - bucketMinY;
+				int bx2 = ((room.x+room.width-1) >> BUCKET_SHIFT) - bucketMinX;
+				int by2 = ((room.y+room.height-1) >> BUCKET_SHIFT) - bucketMinY;
+				for(int by=by1; by<=by2; by++) {
+					for(int bx=bx1; bx<=bx2; bx++) {
+						int bucket = by*bucketsAcross + bx;
+						if (pass==0) {
+							bucketStart[bucket+1]++;
+						} else {
+							inBuckets[bucketFill[bucket]++] = i;
+						}
+					}
+				}
+			}
+			if (pass==0) {
+				for(int i=0; i<bucketStart.length-1; i++) bucketStart[i+1] += bucketStart[i];
+				inBuckets = new int[bucketStart[bucketStart.length-1]];
+			}
+		}
+		bucketRooms = inBuckets;
+		
+		cache = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+				return size() > RoomGraph.this.cacheSize;
+			}
+		};
+		search = ThreadLocal.withInitial(() -> new Search(roomCount));
+	}
+	
+	private int stepsToDoor(int room, Door door) {
+		return Math.abs(door.x-centerX[room]) + Math.abs(door.y-centerY[room]);
+	}
+	
+	public int getRoomCount() { return roomCount; }
+	public int getHallCount() { return halls.size(); }
+	public Room getRoom(int room) { return rooms.get(room); }
+	public Hall getHall(int hall) { return halls.get(hall); }
+	
+	/** @return how many halls lead out of this room */
+	public int getDegree(int room) {
+		return edgeStart[room+1] - edgeStart[room];
+	}
+	
+	/** @return the room at the far end of this room's i'th hall */
+	public int getNeighbor(int room, int i) {
+		return edgeTarget[edgeStart[room]+i];
+	}
+	
+	/** @return the index of this room's i'th hall */
+	public int getNeighborHall(int room, int i) {
+		return edgeHall[edgeStart[room]+i];
+	}
+	
+	/** @return the cost of walking this room's i'th hall, middle to middle */
+	public int getNeighborCost(int room, int i) {
+		return edgeCost[edgeStart[room]+i];
+	}
+	
+	/**
+	 * @return the index of the room covering this tile, or -1 if it isn't inside a room
+	 */
+	public int roomAt(int x, int y) {
+		int bx = (x >> BUCKET_SHIFT) - bucketMinX;
+		int by = (y >> BUCKET_SHIFT) - bucketMinY;
+		if (bx<0 || by<0 || bx>=bucketsAcross || by>=bucketsDown) return -1;
+		int bucket = by*bucketsAcross + bx;
+		for(int i=bucketStart[bucket]; i<bucketStart[bucket+1]; i++) {
+			Room room = rooms.get(bucketRooms[i]);
+			if (x>=room.x && y>=room.y && x<room.x+room.width && y<room.y+room.height) return bucketRooms[i];
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return the index of the room closest to this tile by walking distance, or -1 if there are no rooms. Checks
+	 * every room, so it's meant for the odd lookup like finding the room nearest an entrance.
+	 */
+	public int nearestRoom(int x, int y) {
+		int inside = roomAt(x, y);
+		if (inside!=-1) return inside;
+		int best = -1;
+		int bestDistance = Integer.MAX_VALUE;
+		for(int i=0; i<roomCount; i++) {
+			Room room = rooms.get(i);
+			int dx = Math.max(0, Math.max(room.x-x, x-(room.x+room.width-1)));
+			int dy = Math.max(0, Math.max(room.y-y, y-(room.y+room.height-1)));
+			if (dx+dy<bestDistance) {
+				bestDistance = dx+dy;
+				best = i;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Finds the cheapest route between two rooms.
+	 * @return the rooms to walk through, starting with from and ending with to, or null if there's no way there
+	 */
+	public int[] findPath(int from, int to) {
+		int[] path = cachedPath(from, to);
+		return (path==null) ? null : path.clone();
+	}
+	
+	/**
+	 * @return the cost of the cheapest route between two rooms in tile steps, or -1 if there's no way there
+	 */
+	public int distance(int from, int to) {
+		int[] path = cachedPath(from, to);
+		if (path==null) return -1;
+		int total = 0;
+		for(int i=0; i<path.length-1; i++) total += costBetween(path[i], path[i+1]);
+		return total;
+	}
+	
+	/**
+	 * Finds the cheapest route between the rooms covering two tiles.
+	 * @return the rooms to walk through, or null if either tile is outside a room or there's no way there
+	 */
+	public int[] findPath(int x1, int y1, int x2, int y2) {
+		int from = roomAt(x1, y1);
+		int to = roomAt(x2, y2);
+		if (from==-1 || to==-1) return null;
+		return findPath(from, to);
+	}
+	
+	public void clearCache() {
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+	
+	private int costBetween(int a, int b) {
+		int best = Integer.MAX_VALUE;
+		for(int e=edgeStart[a]; e<edgeStart[a+1]; e++) {
+			if (edgeTarget[e]==b && edgeCost[e]<best) best = edgeCost[e];
+		}
+		return best;
+	}
+	
+	private static final int[] NO_PATH = new int[0];
+	
+	private int[] cachedPath(int from, int to) {
+		if (from<0 || to<0 || from>=roomCount || to>=roomCount) throw new IndexOutOfBoundsException("No room "+from+" or "+to);
+		//Paths are the same either way round, so only store one direction
+		boolean flip = from>to;
+		long key = flip ? ((long)to<<32 | from) : ((long)from<<32 | to);
+		int[] path;
+		synchronized(cache) {
+			path = cache.get(key);
+		}
+		if (path==null) {
+			path = search.get().run(flip ? to : from, flip ? from : to);
+			if (path==null) path = NO_PATH;
+			if (cacheSize>0) {
+				synchronized(cache) {
+					cache.put(key, path);
+				}
+			}
+		}
+		if (path==NO_PATH) return null;
+		if (flip) {
+			int[] reversed = new int[path.length];
+			for(int i=0; i<path.length; i++) reversed[i] = path[path.length-1-i];
+			return reversed;
+		}
+		return path;
+	}
+	
+	/** Scratch space for A*, one per thread. Stamps mean we never have to clear the arrays between searches. */
+	private class Search {
+		final int[] cost;
+		final int[] parent;
+		final int[] stamp;
+		final boolean[] closed;
+		final int[] heap;
+		final int[] heapKey;
+		int heapSize;
+		int generation = 0;
+		
+		Search(int size) {
+			cost = new int[size];
+			parent = new int[size];
+			stamp = new int[size];
+			closed = new boolean[size];
+			//Lazy deletion means a room can be in the heap more than once, at most once per edge leading to it
+			heap = new int[edgeTarget.length+1];
+			heapKey = new int[edgeTarget.length+1];
+		}
+		
+		int[] run(int from, int to) {
+			generation++;
+			if (generation==0) {
+				Arrays.fill(stamp, 0);
+				generation = 1;
+			}
+			heapSize = 0;
+			
+			visit(from, 0, -1);
+			push(from, guess(from, to));
+			while(heapSize>0) {
+				int room = pop();
+				if (closed[room]) continue;
+				closed[room] = true;
+				if (room==to) return unwind(to);
+				
+				int base = cost[room];
+				for(int e=edgeStart[room]; e<edgeStart[room+1]; e++) {
+					int next = edgeTarget[e];
+					int nextCost = base + edgeCost[e];
+					if (stamp[next]!=generation) {
+						visit(next, nextCost, room);
+					} else if (closed[next] || nextCost>=cost[next]) {
+						continue;
+					} else {
+						cost[next] = nextCost;
+						parent[next] = room;
+					}
+					push(next, nextCost + guess(next, to));
+				}
+			}
+			return null;
+		}
+		
+		private void visit(int room, int roomCost, int from) {
+			stamp[room] = generation;
+			cost[room] = roomCost;
+			parent[room] = from;
+			closed[room] = false;
+		}
+		
+		private int guess(int room, int to) {
+			return Math.abs(centerX[to]-centerX[room]) + Math.abs(centerY[to]-centerY[room]);
+		}
+		
+		private int[] unwind(int to) {
+			int length = 0;
+			for(int room=to; room!=-1; room=parent[room]) length++;
+			int[] path = new int[length];
+			for(int room=to; room!=-1; room=parent[room]) path[--length] = room;
+			return path;
+		}
+		
+		private void push(int room, int key) {
+			int i = heapSize++;
+			while(i>0) {
+				int up = (i-1) >>> 1;
+				if (heapKey[up]<=key) break;
+				heap[i] = heap[up];
+				heapKey[i] = heapKey[up];
+				i = up;
+			}
+			heap[i] = room;
+			heapKey[i] = key;
+		}
+		
+		private int pop() {
+			int result = heap[0];
+			int last = --heapSize;
+			int room = heap[last];
+			int key = heapKey[last];
+			int i = 0;
+			while(true) {
+				int child = i*2+1;
+				if (child>=last) break;
+				if (child+1<last && heapKey[child+1]<heapKey[child]) child++;
+				if (heapKey[child]>=key) break;
+				heap[i] = heap[child];
+				heapKey[i] = heapKey[child];
+				i = child;
+			}
+			heap[i] = room;
+			heapKey[i] = key;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A room's tiles worked out ahead of time, in the {@link PackedTileField} layout, so plotting a room is a
+ * handful of row copies instead of three setter calls per tile. Plain rectangular rooms come from
+ * {@link #rectangle(int, int)}, which only ever builds each shape once; designer-made rooms can be captured
+ * from any field with {@link #capture(ITileField, int, int, int, int)} and handed to
+ * {@link FieldGenerator#withPrefabs(float, RoomTemplate...)}.
+ * 
+ * <p>Immutable, and safe to share between generators and threads.
+ */
+public final class RoomTemplate {
+	/** Rectangles up to this size on each side are cached; anything bigger is rare enough to just build. */
+	private static final int MAX_CACHED_SIZE = 64;
+	/** Indexed by (width-1)*MAX_CACHED_SIZE + (height-1) */
+	private static final AtomicReferenceArray<RoomTemplate> RECTANGLES = new AtomicReferenceArray<>(MAX_CACHED_SIZE*MAX_CACHED_SIZE);
+	
+	private final int width;
+	private final int height;
+	/** Packed tiles in row order, with no palette bits. */
+	private final int[] tiles;
+	/** True if any tile is EMPTY, in which case stamping can't just copy whole rows. */
+	private final boolean holes;
+	/** The same tiles with a palette id baked in, built the first time each id gets stamped. Index 0 is tiles. */
+	private volatile int[][] paletted;
+	
+	private RoomTemplate(int width, int height, int[] tiles) {
+		this.width = width;
+		this.height = height;
+		this.tiles = tiles;
+		this.paletted = new int[][] { tiles };
+		boolean holes = false;
+		for(int tile : tiles) {
+			if (tile==PackedTileField.EMPTY) holes = true;
+		}
+		this.holes = holes;
+	}
+	
+	/**
+	 * Gets the template for a plain rectangular room: all ROOM tiles, open to each other, closed off at the edges.
+	 */
+	public static RoomTemplate rectangle(int width, int height) {
+		if (width<1 || height<1 || width>0xFFFF || height>0xFFFF) throw new IllegalArgumentException("Bad room size "+width+"x"+height);
+		if (width>MAX_CACHED_SIZE || height>MAX_CACHED_SIZE) return buildRectangle(width, height);
+		
+		int key = (width-1)*MAX_CACHED_SIZE + (height-1);
+		RoomTemplate result = RECTANGLES.get(key);
+		if (result==null) {
+			//Two threads might both build it, but they build the same thing, so whoever's first wins
+			RECTANGLES.compareAndSet(key, null, buildRectangle(width, height));
+			result = RECTANGLES.get(key);
+		}
+		return result;
+	}
+	
+	private static RoomTemplate buildRectangle(int width, int height) {
+		int[] tiles = new int[width*height];
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) {
+				int exits = PackedTileField.EXIT_MASK;
+				if (x==0) exits &= ~Cardinal.WEST.bit();
+				if (x==width-1) exits &= ~Cardinal.EAST.bit();
+				if (y==0) exits &= ~Cardinal.NORTH.bit();
+				if (y==height-1) exits &= ~Cardinal.SOUTH.bit();
+				tiles[y*width+x] = PackedTileField.pack(TileType.ROOM, exits, 0);
+			}
+		}
+		return new RoomTemplate(width, height, tiles);
+	}
+	
+	/**
+	 * Captures a prefab room from a region of a field, keeping each tile's type and exits. Palettes aren't kept;
+	 * the room's palette is applied when it's stamped.
+	 * 
+	 * <p>Hallways can land anywhere along the edge of a room, so every tile around the outside of the region has
+	 * to be open. What goes on inside is up to you - pillars, internal walls, whatever - but leave a way through.
+	 * 
+	 * @throws IllegalArgumentException if a tile on the edge of the region isn't open
+	 */
+	public static RoomTemplate capture(ITileField field, int x, int y, int width, int height) {
+		if (width<1 || height<1) throw new IllegalArgumentException("Bad room size "+width+"x"+height);
+		int[] tiles = new int[width*height];
+		for(int dy=0; dy<height; dy++) {
+			for(int dx=0; dx<width; dx++) {
+				boolean edge = dx==0 || dy==0 || dx==width-1 || dy==height-1;
+				if (!field.isOpen(x+dx, y+dy)) {
+					if (edge) throw new IllegalArgumentException("Prefab edge tile at "+(x+dx)+","+(y+dy)+" isn't open");
+					continue;
+				}
+				tiles[dy*width+dx] = PackedTileField.pack(field.getType(x+dx, y+dy), field.getExits(x+dx, y+dy), 0);
+			}
+		}
+		return new RoomTemplate(width, height, tiles);
+	}
+	
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	
+	/**
+	 * @return the packed tile at this spot in the template, without a palette
+	 */
+	public int getPacked(int x, int y) {
+		if (x<0 || y<0 || x>=width || y>=height) return PackedTileField.EMPTY;
+		return tiles[y*width+x];
+	}
+	
+	/**
+	 * Writes this template into a field with its top-left corner at x,y. Tiles that are empty in the template
+	 * leave whatever's already in the field alone, whatever the storage. PackedTileFields get a straight row
+	 * copy when the template has no empty tiles; anything else gets one {@link ITileField#setTile} per tile.
+	 */
+	public void stamp(ITileField field, int x, int y, String palette) {
+		if (field instanceof PackedTileField) {
+			PackedTileField packed = (PackedTileField) field;
+			int[] source = withPalette(packed.internPalette(palette));
+			if (!holes) {
+				packed.setPackedRect(x, y, width, height, source);
+				return;
+			}
+			for(int i=0; i<source.length; i++) {
+				if (source[i]!=PackedTileField.EMPTY) packed.setPacked(x + i%width, y + i/width, source[i]);
+			}
+			return;
+		}
+		
+		for(int dy=0; dy<height; dy++) {
+			for(int dx=0; dx<width; dx++) {
+				int tile = tiles[dy*width+dx];
+				if (tile==PackedTileField.EMPTY) continue;
+				field.setTile(x+dx, y+dy, PackedTileField.typeOf(tile), PackedTileField.exitsOf(tile), palette);
+			}
+		}
+	}
+	
+	/**
+	 * Rooms get stamped from several threads at once during parallel placement, so this is copy-on-write: reads
+	 * never lock, and the rare miss builds a new table under the lock.
+	 */
+	private int[] withPalette(int paletteId) {
+		int[][] cache = paletted;
+		if (paletteId<cache.length && cache[paletteId]!=null) return cache[paletteId];
+		synchronized(this) {
+			cache = paletted;
+			if (paletteId<cache.length && cache[paletteId]!=null) return cache[paletteId];
+			int[] result = new int[tiles.length];
+			int bits = (paletteId << PackedTileField.PALETTE_SHIFT) & PackedTileField.PALETTE_MASK;
+			for(int i=0; i<tiles.length; i++) {
+				result[i] = (tiles[i]==PackedTileField.EMPTY) ? PackedTileField.EMPTY : tiles[i] | bits;
+			}
+			int[][] grown = Arrays.copyOf(cache, Math.max(cache.length, paletteId+1));
+			grown[paletteId] = result;
+			paletted = grown;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.function.Predicate;
+
+/**
+ * Something a designer wants out of a dungeon, for {@link SeedScanner} to hunt for.
+ * 
+ * <p>{@link #canStillMatch(GenerationListener.Phase, GenerationStats)} lets a predicate give up on a seed while it's
+ * still being generated, which is where most of the scanning speed comes from. It must only say no when the
+ * finished dungeon definitely couldn't pass.
+ */
+public interface SeedPredicate {
+	
+	boolean test(SeedScanner.Candidate candidate);
+	
+	/**
+	 * Called between generation phases with the counters so far. CONNECTION_PASS calls come mid-connection, so
+	 * anything judged on componentsLeft has to wait for the CONNECTION call, where it's final.
+	 * @return false to throw this seed away without finishing it
+	 */
+	default boolean canStillMatch(GenerationListener.Phase phase, GenerationStats stats) {
+		return true;
+	}
+	
+	default SeedPredicate and(SeedPredicate other) {
+		SeedPredicate self = this;
+		return new SeedPredicate() {
+			@Override
+			public boolean test(SeedScanner.Candidate candidate) {
+				return self.test(candidate) && other.test(candidate);
+			}
+			
+			@Override
+			public boolean canStillMatch(GenerationListener.Phase phase, GenerationStats stats) {
+				return self.canStillMatch(phase, stats) && other.canStillMatch(phase, stats);
+			}
+		};
+	}
+	
+	/** Wraps a plain check which can't tell early. */
+	public static SeedPredicate of(Predicate<SeedScanner.Candidate> test) {
+		return test::test;
+	}
+	
+	/**
+	 * At least this many rooms can be walked to from the first room.
+	 */
+	public static SeedPredicate minReachableRooms(int rooms) {
+		return new SeedPredicate() {
+			@Override
+			public boolean test(SeedScanner.Candidate candidate) {
+				return candidate.getReachableRooms() >= rooms;
+			}
+			
+			@Override
+			public boolean canStillMatch(GenerationListener.Phase phase, GenerationStats stats) {
+				if (stats.rooms<rooms) return false;
+				//Every group the first room isn't in has at least one room in it that we'll never reach. Only once
+				//connection is over, though - every pass can still join groups up.
+				if (phase==GenerationListener.Phase.CONNECTION && stats.rooms-(stats.componentsLeft-1) < rooms) return false;
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * The walk from the room nearest the entrance to the room nearest the exit, middle to middle, is at least
+	 * this many steps. Seeds where the two can't reach each other don't count.
+	 */
+	public static SeedPredicate minEntranceToExit(int steps) {
+		return candidate -> candidate.getEntranceToExitDistance() >= steps;
+	}
+	
+	/**
+	 * No more than this many rooms with only one hall in or out. Zero means no dead ends at all, which only a
+	 * handful of very small dungeons will manage, since rooms are connected as sparingly as possible.
+	 */
+	public static SeedPredicate maxDeadEnds(int deadEnds) {
+		return candidate -> candidate.getDeadEnds() <= deadEnds;
+	}
+}
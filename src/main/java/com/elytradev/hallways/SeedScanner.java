@@ -0,0 +1,233 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searches ranges of seeds for dungeons that pass a {@link SeedPredicate}, using every core. Each worker keeps
+ * its own generator and tile buffer for the whole scan, generates straight into packed storage, and drops a seed
+ * the moment the predicate says it can't pass.
+ * 
+ * <p>Seeds found here give the same dungeon as {@code spec.withSeed(seed).configure(new FieldGenerator())}.
+ */
+public class SeedScanner {
+	/** Seeds are handed out to workers this many at a time */
+	private static final int BLOCK_SIZE = 64;
+	
+	private final GenerationSpec spec;
+	private final SeedPredicate predicate;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	
+	private final AtomicLong scanned = new AtomicLong();
+	private final AtomicLong aborted = new AtomicLong();
+	
+	public SeedScanner(GenerationSpec spec, SeedPredicate predicate) {
+		this.spec = spec;
+		this.predicate = predicate;
+	}
+	
+	public SeedScanner withParallelism(int threads) {
+		if (threads<1) throw new IllegalArgumentException("parallelism must be at least 1");
+		this.parallelism = threads;
+		return this;
+	}
+	
+	/** @return how many seeds the last scan generated, including the ones given up on */
+	public long getScanned() { return scanned.get(); }
+	/** @return how many seeds the last scan gave up on partway through generating */
+	public long getAborted() { return aborted.get(); }
+	
+	/**
+	 * Finds the lowest seeds in a range that pass. The answer is the same no matter how many threads run it.
+	 * 
+	 * @param from       the first seed to try
+	 * @param count      how many seeds to try at most
+	 * @param maxResults stop once this many have been found
+	 * @return matching seeds, lowest first
+	 */
+	public List<Long> scan(long from, long count, int maxResults) {
+		scanned.set(0);
+		aborted.set(0);
+		if (count<=0 || maxResults<=0) return Collections.emptyList();
+		
+		long blocks = (count+BLOCK_SIZE-1) / BLOCK_SIZE;
+		AtomicLong nextBlock = new AtomicLong();
+		AtomicInteger found = new AtomicInteger();
+		List<Long> results = Collections.synchronizedList(new ArrayList<>());
+		
+		//Blocks are claimed in order and always finished once claimed, so when we stop early every seed lower than
+		//the highest one claimed has been tried, and sorting gives the true lowest matches.
+		Runnable work = () -> {
+			Worker worker = new Worker();
+			while(found.get()<maxResults) {
+				long block = nextBlock.getAndIncrement();
+				if (block>=blocks) break;
+				long start = from + block*BLOCK_SIZE;
+				long end = Math.min(from+count, start+BLOCK_SIZE);
+				for(long seed=start; seed<end; seed++) {
+					if (worker.test(seed)) {
+						results.add(seed);
+						found.incrementAndGet();
+					}
+				}
+			}
+		};
+		
+		int threads = (int)Math.min(parallelism, blocks);
+		if (threads<=1) {
+			work.run();
+		} else {
+			Thread[] workers = new Thread[threads];
+			RuntimeException[] failure = new RuntimeException[1];
+			for(int i=0; i<threads; i++) {
+				workers[i] = new Thread(() -> {
+					try {
+						work.run();
+					} catch (RuntimeException e) {
+						synchronized(failure) {
+							if (failure[0]==null) failure[0] = e;
+						}
+						found.set(maxResults); //Stop everyone else too
+					}
+				}, "SeedScanner-"+i);
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+			try {
+				for(Thread thread : workers) thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				found.set(maxResults);
+				throw new IllegalStateException("Interrupted while scanning seeds", e);
+			}
+			if (failure[0]!=null) throw failure[0];
+		}
+		
+		ArrayList<Long> sorted = new ArrayList<>(results);
+		Collections.sort(sorted);
+		return (sorted.size()>maxResults) ? new ArrayList<>(sorted.subList(0, maxResults)) : sorted;
+	}
+	
+	/**
+	 * @return true if this one seed passes
+	 */
+	public boolean test(long seed) {
+		return new Worker().test(seed);
+	}
+	
+	private class Worker implements GenerationListener {
+		private final FieldGenerator generator = new FieldGenerator();
+		private final PackedTileField field = new PackedTileField(spec.getSize(), spec.getSize());
+		private final Candidate candidate = new Candidate(generator, field);
+		
+		boolean test(long seed) {
+			generator.reset();
+			spec.withSeed(seed).configure(generator);
+			generator.withListener(this);
+			field.clear();
+			scanned.incrementAndGet();
+			if (!generator.generateInto(field)) {
+				if (generator.getStats().aborted) aborted.incrementAndGet();
+				return false;
+			}
+			candidate.reset(seed);
+			return predicate.test(candidate);
+		}
+		
+		@Override
+		public boolean keepGoing(Phase phase, GenerationStats stats) {
+			return predicate.canStillMatch(phase, stats);
+		}
+	}
+	
+	/**
+	 * A freshly generated dungeon being judged. Only valid during the call to {@link SeedPredicate#test}; the
+	 * same object is reused for the next seed. The more expensive answers are worked out on first use.
+	 */
+	public static class Candidate {
+		private final FieldGenerator generator;
+		private final PackedTileField field;
+		private long seed;
+		private ReachabilityValidator.Result reachability;
+		private int entranceToExit;
+		
+		private Candidate(FieldGenerator generator, PackedTileField field) {
+			this.generator = generator;
+			this.field = field;
+		}
+		
+		private void reset(long seed) {
+			this.seed = seed;
+			this.reachability = null;
+			this.entranceToExit = Integer.MIN_VALUE;
+		}
+		
+		public long getSeed() { return seed; }
+		public ITileField getField() { return field; }
+		public FieldGenerator getGenerator() { return generator; }
+		public GenerationStats getStats() { return generator.getStats(); }
+		public RoomGraph getGraph() { return generator.getGraph(); }
+		
+		public ReachabilityValidator.Result getReachability() {
+			if (reachability==null) reachability = generator.validate();
+			return reachability;
+		}
+		
+		/** @return how many rooms can be walked to from the first room, counting the first room */
+		public int getReachableRooms() {
+			return generator.getRooms().size() - getReachability().getDisconnectedRooms().size();
+		}
+		
+		/**
+		 * @return the walking distance between the rooms nearest the entrance and the exit, or -1 if one can't be
+		 * reached from the other
+		 */
+		public int getEntranceToExitDistance() {
+			if (entranceToExit==Integer.MIN_VALUE) {
+				RoomGraph graph = getGraph();
+				int from = graph.nearestRoom(generator.x1, generator.y1);
+				int to = graph.nearestRoom(generator.x2, generator.y2);
+				entranceToExit = (from==-1 || to==-1) ? -1 : graph.distance(from, to);
+			}
+			return entranceToExit;
+		}
+		
+		/** @return how many rooms have only one hall in or out */
+		public int getDeadEnds() {
+			RoomGraph graph = getGraph();
+			int result = 0;
+			for(int i=0; i<graph.getRoomCount(); i++) {
+				if (graph.getDegree(i)<=1) result++;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+/**
+ * Draws tiles straight into a packed RGB pixel array, the same way VectorPanel has always drawn them: a square of
+ * the tile's color, with a darker two-pixel wall along every side that has no exit. Anything that isn't an open
+ * tile is left as {@link #OOB_COLOR}.
+ * 
+ * <p>Colors are worked out once per TileType, so drawing allocates nothing.
+ */
+public final class TileRaster {
+	/** Same gray VectorPanel has always used for empty space */
+	public static final int OOB_COLOR = 0xFF666666;
+	public static final int WALL_THICKNESS = 2;
+	
+	private static final int[] FILL = new int[TileType.values().length];
+	private static final int[] WALL = new int[TileType.values().length];
+	static {
+		for(TileType type : TileType.values()) {
+			FILL[type.ordinal()] = 0xFF000000 | type.color;
+			WALL[type.ordinal()] = darker(type.color);
+		}
+	}
+	
+	private TileRaster() {}
+	
+	/**
+	 * Same math as {@link java.awt.Color#darker()}, so walls come out exactly as they did when drawn through Graphics.
+	 */
+	private static int darker(int rgb) {
+		int r = (int)(((rgb >> 16) & 0xFF) * 0.7);
+		int g = (int)(((rgb >>  8) & 0xFF) * 0.7);
+		int b = (int)(( rgb        & 0xFF) * 0.7);
+		return 0xFF000000 | (r << 16) | (g << 8) | b;
+	}
+	
+	public static int fillColor(TileType type) { return FILL[type.ordinal()]; }
+	public static int wallColor(TileType type) { return WALL[type.ordinal()]; }
+	
+	/**
+	 * Renders a rectangle of tiles.
+	 * 
+	 * @param tileX   the first tile column to draw
+	 * @param tileY   the first tile row to draw
+	 * @param tilesW  how many columns to draw
+	 * @param tilesH  how many rows to draw
+	 * @param zoom    pixels per tile
+	 * @param pixels  the destination, one int per pixel
+	 * @param stride  how many ints make up one row of pixels
+	 * @param originX the pixel column that tile column 0 would start at
+	 * @param originY the pixel row that tile row 0 would start at
+	 */
+	public static void render(ITileField field, int tileX, int tileY, int tilesW, int tilesH, int zoom, int[] pixels, int stride, int originX, int originY) {
+		for(int y=tileY; y<tileY+tilesH; y++) {
+			for(int x=tileX; x<tileX+tilesW; x++) {
+				int px = originX + x*zoom;
+				int py = originY + y*zoom;
+				if (field.isOpen(x, y)) {
+					drawTile(pixels, stride, px, py, zoom, field.getType(x, y), field.getExits(x, y));
+				} else {
+					fill(pixels, stride, px, py, zoom, zoom, OOB_COLOR);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Draws one open tile with its top-left corner at (px, py).
+	 */
+	public static void drawTile(int[] pixels, int stride, int px, int py, int zoom, TileType type, int exits) {
+		int wall = Math.min(WALL_THICKNESS, zoom);
+		int wallColor = WALL[type.ordinal()];
+		fill(pixels, stride, px, py, zoom, zoom, FILL[type.ordinal()]);
+		if ((exits & Cardinal.WEST.bit())==0)  fill(pixels, stride, px, py, wall, zoom, wallColor);
+		if ((exits & Cardinal.EAST.bit())==0)  fill(pixels, stride, px+zoom-wall, py, wall, zoom, wallColor);
+		if ((exits & Cardinal.NORTH.bit())==0) fill(pixels, stride, px, py, zoom, wall, wallColor);
+		if ((exits & Cardinal.SOUTH.bit())==0) fill(pixels, stride, px, py+zoom-wall, zoom, wall, wallColor);
+	}
+	
+	private static void fill(int[] pixels, int stride, int px, int py, int w, int h, int color) {
+		for(int y=py; y<py+h; y++) {
+			int row = y*stride;
+			for(int x=px; x<px+w; x++) {
+				pixels[row+x] = color;
+			}
+		}
+	}
+}
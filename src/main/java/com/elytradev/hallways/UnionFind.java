@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+/**
+ * Disjoint-set forest over the ints 0..size-1, with union by size and path halving.
+ */
+final class UnionFind {
+	private final int[] parent;
+	private final int[] size;
+	private int count;
+	
+	public UnionFind(int size) {
+		this.parent = new int[size];
+		this.size = new int[size];
+		reset(size);
+	}
+	
+	/**
+	 * Puts the first {@code size} elements back in sets of their own, so the arrays can be reused. Anything past
+	 * that is left alone and shouldn't be touched until the next reset.
+	 */
+	public void reset(int size) {
+		for(int i=0; i<size; i++) {
+			parent[i] = i;
+			this.size[i] = 1;
+		}
+		this.count = size;
+	}
+	
+	/** @return the most elements this can hold */
+	public int capacity() {
+		return parent.length;
+	}
+	
+	public int find(int i) {
+		while(parent[i]!=i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	/**
+	 * @return true if a and b were in different sets (and now aren't)
+	 */
+	public boolean union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA==rootB) return false;
+		if (size[rootA]<size[rootB]) {
+			int tmp = rootA;
+			rootA = rootB;
+			rootB = tmp;
+		}
+		parent[rootB] = rootA;
+		size[rootA] += size[rootB];
+		count--;
+		return true;
+	}
+	
+	/** @return the number of elements in the set containing i */
+	public int sizeOf(int i) {
+		return size[find(i)];
+	}
+	
+	/** @return the number of disjoint sets left */
+	public int getCount() {
+		return count;
+	}
+}
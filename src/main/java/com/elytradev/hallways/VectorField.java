@@ -25,63 +25,316 @@
 package com.elytradev.hallways;
 import static java.lang.Math.*;
 
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * A 2D grid of whatever you like. Cells live in 16x16 chunks which are only allocated once something is put in
+ * them; until then every chunk points at one shared, always-empty array. Dungeons are mostly empty space
+ * between rooms, so this keeps memory in line with how much of the map is actually used.
+ * 
+ * <p>{@link #snapshot()} gives a frozen, read-only copy for other threads to look at, without copying anything
+ * up front: the two share chunks until this field next writes to one, at which point this field copies that
+ * chunk for itself first.
+ * 
+ * <p>For whole-map passes, {@link #parallelForEachCell(CellVisitor)} and {@link #parallelStream()} split the
+ * work along chunk lines and hand it to the common fork-join pool.
+ * 
+ * <p>With {@link #setChangeTracking(boolean) change tracking} on, every write is noted in a per-chunk bitset,
+ * and {@link #drainChanges(CellVisitor)} hands back just the cells that changed since the last drain. That's
+ * what lets a live dungeon be synced by sending its edits rather than the whole map.
+ */
 public class VectorField<T> {
+	public static final int CHUNK_SHIFT = 4;
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE-1;
+	/** Stands in for every chunk nobody has written to yet. Never written to itself. */
+	private static final Object[] EMPTY = new Object[CHUNK_SIZE*CHUNK_SIZE];
 	
-	private int width = 1;
-	private int height = 1;
-	private T[] cells;
+	private final int width;
+	private final int height;
+	private final int chunksAcross;
+	private final int chunksDown;
+	private final Object[][] chunks;
+	/**
+	 * The chunks this field is allowed to write to in place. Each slot is either null or the same array as in
+	 * chunks; anything not in here might be shared with a snapshot and has to be copied first. Null for snapshots,
+	 * which never write. Atomic because writableChunk reads it without the lock, and a chunk has to be fully
+	 * built (copier and all) before another thread can see it here.
+	 */
+	private final AtomicReferenceArray<Object[]> owned;
+	private UnaryOperator<T> copier = null;
+	/** One bit per cell for each chunk with unsynced changes, null for clean chunks. Null altogether when not tracking. */
+	private long[][] dirty = null;
 	private ITagCompound tag = null;
 	
-	@SuppressWarnings("unchecked")
 	public VectorField(int width, int height) {
+		if (width <1) width=1;
+		if (height<1) height=1;
+		if (width >65534) width=65534; //64KiB should be enough for everybody
+		if (height>65534) height=65534;
 		this.width = width;
 		this.height = height;
-		if (this.width <1) this.width=1;
-		if (this.height<1) this.height=1;
-		if (this.width >65534) this.width=65534; //64KiB should be enough for everybody
-		if (this.height>65534) this.height=65534;
-		cells = (T[]) new Object[width*height];
+		chunksAcross = (width+CHUNK_MASK) >> CHUNK_SHIFT;
+		chunksDown = (height+CHUNK_MASK) >> CHUNK_SHIFT;
+		chunks = new Object[chunksAcross*chunksDown][];
+		owned = new AtomicReferenceArray<>(chunks.length);
+		Arrays.fill(chunks, EMPTY);
 	}
 	
-	@SuppressWarnings("unchecked")
-	public void clear() {
-		cells = (T[]) new Object[width*height];
+	/** Snapshot constructor. All the fields are final, so handing a snapshot to another thread is always safe. */
+	private VectorField(VectorField<T> source) {
+		width = source.width;
+		height = source.height;
+		chunksAcross = source.chunksAcross;
+		chunksDown = source.chunksDown;
+		chunks = source.chunks.clone();
+		owned = null;
+		tag = source.tag;
 	}
 	
 	/**
-	 * Runs down a line of your choosing, calling a function for each cell involved.
-	 * NORMALLY does not double-visit rooms, but it is neither guaranteed to avoid
-	 * revisiting rooms, nor is it guaranteed to ensure that it will visit the last
-	 * room at x2,y2.
+	 * Sets how to copy a cell when a chunk shared with a snapshot gets copied. Without one, cells are shared
+	 * between the two, which is fine for things that never change but not for things like DungeonTile which get
+	 * edited in place. With one, edit cells through {@link #getOrCreate(int, int, Supplier)} rather than changing
+	 * what {@link #get(int, int)} hands back, so the copy happens before the edit.
+	 */
+	public VectorField<T> setCopier(UnaryOperator<T> copier) {
+		this.copier = copier;
+		return this;
+	}
+	
+	/**
+	 * @return true if this is a snapshot, which can be read from any thread without locking but never written to
+	 */
+	public boolean isReadOnly() {
+		return owned==null;
+	}
+	
+	/**
+	 * Turns change tracking on or off. Turning it on starts with nothing marked changed; turning it off forgets
+	 * anything that hasn't been drained yet. Snapshots never track changes.
 	 * 
-	 * <p>There's still an outstanding off-by-one bug in this code, hastily patched by
-	 * adding 1 to numSteps, but ideally we'd get the 
+	 * <p>Marking is locked, so it costs a little on every write. Leave it off while generating and turn it on
+	 * once the dungeon is live.
 	 */
-	public void visitLine(int x1, int y1, int x2, int y2, CellCallable<T> function ) {
-		//This algorithm is basically a Bresenham line
-		
-		//We start by getting the X and Y delta, basically a vector to travel along
-		float dx = x2-x1;
-		float dy = y2-y1;
-		
-		//Now we SORT OF normalize that vector so that each time we step, we go 1 x or y, and some fraction of the other axis.
-		float scale = max( abs(dx), abs(dy));
-		float xstep = dx / scale;
-		float ystep = dy / scale;
-		
-		int numSteps = (int)scale; //the number of iterations we'll need to travel *should* be equal to the larger of the two cardinal distances
-		
-		float curX = x1+0.5f;
-		float curY = y1+0.5f;
-		
-		for(int i=0; i<numSteps; i++) {
-			function.call(this, (int)curX, (int)curY);
-			curX+= xstep;
-			curY+= ystep;
+	public synchronized VectorField<T> setChangeTracking(boolean track) {
+		checkWritable();
+		dirty = (track) ? new long[chunks.length][] : null;
+		return this;
+	}
+	
+	public boolean isTrackingChanges() {
+		return dirty!=null;
+	}
+	
+	/**
+	 * Marks a cell as changed. {@link #put(int, int, Object) put} and {@link #getOrCreate(int, int, Supplier)
+	 * getOrCreate} already do this, so this is only needed after editing something {@link #get(int, int) get}
+	 * handed back. Does nothing if change tracking is off.
+	 */
+	public void markChanged(int x, int y) {
+		if (dirty==null || x<0 || y<0 || x>=width || y>=height) return;
+		markDirty(chunkIndex(x, y, chunksAcross), cellIndex(x, y));
+	}
+	
+	private synchronized void markDirty(int index, int cell) {
+		if (dirty==null) return;
+		long[] bits = dirty[index];
+		if (bits==null) {
+			bits = new long[CHUNK_SIZE*CHUNK_SIZE/64];
+			dirty[index] = bits;
+		}
+		bits[cell >> 6] |= 1L << cell;
+	}
+	
+	/**
+	 * @return true if anything has changed since change tracking was turned on or last drained
+	 */
+	public synchronized boolean hasChanges() {
+		if (dirty==null) return false;
+		for(long[] bits : dirty) {
+			if (bits!=null) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Visits every cell that changed since the last drain, chunk by chunk, and marks them all synced again. Cells
+	 * that were emptied are visited too, so check for null. The visitor runs with the field locked, so it can
+	 * read cells freely but shouldn't hand off to other threads that write to this field.
+	 * @return how many cells were visited
+	 */
+	public synchronized int drainChanges(CellVisitor visitor) {
+		if (dirty==null) return 0;
+		int result = 0;
+		for(int i=0; i<dirty.length; i++) {
+			long[] bits = dirty[i];
+			if (bits==null) continue;
+			dirty[i] = null;
+			int baseX = (i % chunksAcross) << CHUNK_SHIFT;
+			int baseY = (i / chunksAcross) << CHUNK_SHIFT;
+			for(int word=0; word<bits.length; word++) {
+				long remaining = bits[word];
+				while(remaining!=0) {
+					int cell = (word << 6) | Long.numberOfTrailingZeros(remaining);
+					remaining &= remaining-1;
+					visitor.visit(baseX | (cell & CHUNK_MASK), baseY | (cell >> CHUNK_SHIFT));
+					result++;
+				}
+			}
+		}
+		return result;
+	}
+	
+	/** Marks every non-null cell of a chunk as changed, for when the whole lot is about to be emptied. */
+	private void markOccupied(int index) {
+		Object[] chunk = chunks[index];
+		if (dirty==null || chunk==EMPTY) return;
+		for(int cell=0; cell<chunk.length; cell++) {
+			if (chunk[cell]!=null) markDirty(index, cell);
+		}
+	}
+	
+	/**
+	 * Takes a read-only copy of the field as it stands right now. This is cheap - only the chunk table is copied,
+	 * and this field pays for copying a chunk the first time it writes to one afterwards. The snapshot never
+	 * changes, so any number of threads can read it without locking.
+	 * 
+	 * <p>Call this from the thread doing the writing, or with writes locked out.
+	 */
+	public VectorField<T> snapshot() {
+		if (isReadOnly()) return this;
+		synchronized(this) {
+			VectorField<T> result = new VectorField<>(this);
+			disown(); //Everything is shared now
+			return result;
+		}
+	}
+	
+	/**
+	 * Empties every cell. Chunks this field owns are kept, so a cleared field can be refilled without
+	 * reallocating them.
+	 */
+	public synchronized void clear() {
+		checkWritable();
+		for(int i=0; i<chunks.length; i++) {
+			if (chunks[i]==EMPTY) continue;
+			markOccupied(i);
+			if (owned.get(i)!=null) {
+				Arrays.fill(chunks[i], null);
+			} else {
+				chunks[i] = EMPTY;
+			}
+		}
+	}
+	
+	/**
+	 * Empties every cell and lets go of every chunk, for when the field is going to sit around unused.
+	 */
+	public synchronized void release() {
+		checkWritable();
+		for(int i=0; i<chunks.length; i++) {
+			markOccupied(i);
+		}
+		Arrays.fill(chunks, EMPTY);
+		disown();
+	}
+	
+	private void disown() {
+		for(int i=0; i<owned.length(); i++) {
+			owned.set(i, null);
+		}
+	}
+	
+	/**
+	 * @return how many 16x16 chunks hold something, for keeping an eye on memory
+	 */
+	public int getAllocatedChunks() {
+		int result = 0;
+		for(Object[] chunk : chunks) {
+			if (chunk!=EMPTY) result++;
+		}
+		return result;
+	}
+	
+	private static int chunkIndex(int x, int y, int chunksAcross) {
+		return (y >> CHUNK_SHIFT)*chunksAcross + (x >> CHUNK_SHIFT);
+	}
+	
+	private static int cellIndex(int x, int y) {
+		return ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+	}
+	
+	private void checkWritable() {
+		if (owned==null) throw new UnsupportedOperationException("Snapshots are read-only");
+	}
+	
+	/**
+	 * Gets a chunk that's safe to write to, making or copying it if this is the first write since it was made or
+	 * snapshotted. Rooms get plotted from several threads at once and neighbouring rooms can share a chunk, so
+	 * that part is locked and double-checked. The unlocked check only trusts owned, which is only set once the
+	 * chunk is ready.
+	 */
+	@SuppressWarnings("unchecked")
+	private Object[] writableChunk(int index) {
+		checkWritable();
+		Object[] chunk = owned.get(index);
+		if (chunk!=null) return chunk;
+		synchronized(this) {
+			chunk = owned.get(index);
+			if (chunk!=null) return chunk;
+			chunk = chunks[index];
+			if (chunk==EMPTY) {
+				chunk = new Object[CHUNK_SIZE*CHUNK_SIZE];
+			} else {
+				chunk = chunk.clone();
+				if (copier!=null) {
+					for(int i=0; i<chunk.length; i++) {
+						if (chunk[i]!=null) chunk[i] = copier.apply((T) chunk[i]);
+					}
+				}
+			}
+			chunks[index] = chunk;
+			owned.set(index, chunk); //Publishes the finished chunk to the unlocked check above
+			return chunk;
 		}
+	}
+	
+	/**
+	 * Runs down a line of your choosing, calling a function for each cell involved. This is a plain integer
+	 * Bresenham line: it visits both ends, never visits a cell twice, and visits max(|dx|, |dy|)+1 cells.
+	 */
+	public void visitLine(int x1, int y1, int x2, int y2, CellCallable<T> function) {
+		visitLine(x1, y1, x2, y2, (x, y) -> function.call(this, x, y));
+	}
+	
+	/**
+	 * Same as {@link #visitLine(int, int, int, int, CellCallable)}, for visitors that don't need the field.
+	 */
+	public void visitLine(int x1, int y1, int x2, int y2, CellVisitor visitor) {
+		int dx = abs(x2-x1);
+		int dy = -abs(y2-y1);
+		int sx = (x1<x2) ? 1 : -1;
+		int sy = (y1<y2) ? 1 : -1;
+		int err = dx+dy;
 		
+		int x = x1;
+		int y = y1;
+		while(true) {
+			visitor.visit(x, y);
+			if (x==x2 && y==y2) return;
+			int err2 = err*2;
+			if (err2>=dy) { err += dy; x += sx; }
+			if (err2<=dx) { err += dx; y += sy; }
+		}
 	}
 	
 	/**
@@ -95,18 +348,78 @@ public class VectorField<T> {
 		}
 	}
 	
+	/**
+	 * Same as {@link #visitRect(int, int, int, int, CellCallable)}, for visitors that don't need the field.
+	 */
+	public void visitRect(int x1, int y1, int width, int height, CellVisitor visitor) {
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) {
+				visitor.visit(x1+x, y1+y);
+			}
+		}
+	}
+	
+	/**
+	 * Visits every cell in the field, empty or not, one row at a time.
+	 */
+	public void forEachCell(CellVisitor visitor) {
+		visitRect(0, 0, width, height, visitor);
+	}
+	
+	/**
+	 * Visits every cell in the field on the common fork-join pool, in bands of {@link #CHUNK_SIZE} rows. Bands
+	 * line up with chunks, so a visitor that only writes to the cell it was handed never touches a chunk another
+	 * thread is writing to. Cells within a band go in row order; the bands themselves go in no particular order.
+	 */
+	public void parallelForEachCell(CellVisitor visitor) {
+		IntStream.range(0, chunksDown).parallel().forEach(band -> {
+			int y1 = band << CHUNK_SHIFT;
+			visitRect(0, y1, width, min(CHUNK_SIZE, height-y1), visitor);
+		});
+	}
+	
+	/**
+	 * Streams every non-null cell, skipping chunks that have never been written to. Cells come out chunk by
+	 * chunk rather than row by row.
+	 * 
+	 * <p>Don't write to the field while a stream over it is running. If something else might, stream a
+	 * {@link #snapshot()} instead - snapshots never change, and their streams split and run in parallel safely.
+	 */
+	public Stream<Cell<T>> stream() {
+		return StreamSupport.stream(new CellSpliterator(0, chunks.length), false);
+	}
+	
+	/**
+	 * Like {@link #stream()}, but parallel, split along chunk lines.
+	 */
+	public Stream<Cell<T>> parallelStream() {
+		return StreamSupport.stream(new CellSpliterator(0, chunks.length), true);
+	}
+	
+	@SuppressWarnings("unchecked")
 	public T get(int x, int y) {
 		if (x<0 || y<0 || x>=width || y>=height) return null; //SILENT BUT DEADLY
-		return cells[y*width+x];
+		return (T) chunks[chunkIndex(x, y, chunksAcross)][cellIndex(x, y)];
 	}
 	
+	@SuppressWarnings("unchecked")
 	public T getOrCreate(int x, int y, Supplier<T> supplier) {
 		if (x<0 || y<0 || x>=width || y>=height) return supplier.get();
-		T result = cells[y*width+x];
+		int cell = cellIndex(x, y);
+		if (owned==null) {
+			//Snapshots can hand back what's there, but can't make anything new
+			T existing = (T) chunks[chunkIndex(x, y, chunksAcross)][cell];
+			if (existing!=null) return existing;
+			checkWritable();
+		}
+		int index = chunkIndex(x, y, chunksAcross);
+		Object[] chunk = writableChunk(index);
+		T result = (T) chunk[cell];
 		if (result==null) {
 			result = supplier.get();
-			cells[y*width+x] = result;
+			chunk[cell] = result;
 		}
+		if (dirty!=null) markDirty(index, cell); //Callers get this to edit it, so assume they did
 		
 		return result;
 	}
@@ -115,14 +428,29 @@ public class VectorField<T> {
 	 * 
 	 * @return whatever previously occupied the cell.
 	 */
+	@SuppressWarnings("unchecked")
 	public T put(int x, int y, T t) {
 		if (x<0 || y<0 || x>=width || y>=height) return null;
-		int index = y*width+x;
-		T result = cells[index];
-		cells[index] = t;
+		int index = chunkIndex(x, y, chunksAcross);
+		int cell = cellIndex(x, y);
+		checkWritable();
+		if (t==null && chunks[index]==EMPTY) return null; //Clearing a cell that was never set, no need to allocate
+		Object[] chunk = writableChunk(index);
+		T result = (T) chunk[cell];
+		chunk[cell] = t;
+		if (dirty!=null) markDirty(index, cell);
 		return result;
 	}
 	
+	/**
+	 * @return true if nothing has ever been put in the 16x16 chunk holding this cell. Lets visitors skip whole
+	 * chunks of empty space.
+	 */
+	public boolean isChunkEmpty(int x, int y) {
+		if (x<0 || y<0 || x>=width || y>=height) return true;
+		return chunks[chunkIndex(x, y, chunksAcross)]==EMPTY;
+	}
+	
 	public int getWidth() { return width; }
 	public int getHeight() { return height; }
 	
@@ -143,5 +471,86 @@ public class VectorField<T> {
 	public void setTag(ITagCompound tag) {
 		this.tag = tag;
 	}
+	
+	/**
+	 * One non-null cell, as handed out by {@link VectorField#stream()}.
+	 */
+	public static final class Cell<T> {
+		private final int x;
+		private final int y;
+		private final T value;
+		
+		public Cell(int x, int y, T value) {
+			this.x = x;
+			this.y = y;
+			this.value = value;
+		}
+		
+		public int getX() { return x; }
+		public int getY() { return y; }
+		public T getValue() { return value; }
+		
+		@Override
+		public String toString() {
+			return x+","+y+": "+value;
+		}
+	}
+	
+	/**
+	 * Walks a range of chunks. Splits in half by chunk count, which is close enough to even for dungeons since
+	 * empty chunks cost next to nothing to skip.
+	 */
+	private final class CellSpliterator implements Spliterator<Cell<T>> {
+		private int chunk;
+		private final int end;
+		private int cell = 0;
+		
+		CellSpliterator(int chunk, int end) {
+			this.chunk = chunk;
+			this.end = end;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean tryAdvance(Consumer<? super Cell<T>> action) {
+			while(chunk<end) {
+				Object[] cells = chunks[chunk];
+				if (cells!=EMPTY) {
+					while(cell<cells.length) {
+						int i = cell++;
+						if (cells[i]==null) continue;
+						int x = ((chunk % chunksAcross) << CHUNK_SHIFT) | (i & CHUNK_MASK);
+						int y = ((chunk / chunksAcross) << CHUNK_SHIFT) | (i >> CHUNK_SHIFT);
+						action.accept(new Cell<>(x, y, (T) cells[i]));
+						return true;
+					}
+				}
+				chunk++;
+				cell = 0;
+			}
+			return false;
+		}
+		
+		@Override
+		public Spliterator<Cell<T>> trySplit() {
+			int mid = (chunk+1+end) >>> 1;
+			if (mid>=end) return null;
+			CellSpliterator prefix = new CellSpliterator(chunk, mid);
+			prefix.cell = cell;
+			chunk = mid;
+			cell = 0;
+			return prefix;
+		}
+		
+		@Override
+		public long estimateSize() {
+			return (long)(end-chunk) * CHUNK_SIZE*CHUNK_SIZE;
+		}
+		
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | (isReadOnly() ? IMMUTABLE : 0);
+		}
+	}
 
 }
@@ -22,51 +22,185 @@
  * SOFTWARE.
  */
 
+
 package com.elytradev.hallways;
 
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.swing.JPanel;
 
+/**
+ * Shows a dungeon, zoomed. The dungeon is rendered in blocks, each into its own small image, and a block is only
+ * drawn the first time it's visible and again after it's changed. Repaints just copy the visible blocks, so
+ * scrolling and resizing don't touch the tiles at all.
+ * 
+ * <p>Only the most recently shown blocks are kept, up to {@link #MAX_CACHED_PIXELS}, so memory follows the size
+ * of the viewport rather than the size of the dungeon - a 4096x4096 dungeon at zoom 4 would be a 1GiB image.
+ * 
+ * <p>Asked to follow changes on a VectorField, the panel turns on change tracking while it's on screen and
+ * picks up every edit by itself; just repaint. Tracking goes back off when the panel is taken off screen, so the
+ * field doesn't pay for it any longer than it has to. A field that's already tracking changes belongs to someone
+ * else (a network sync, say), and draining it here would steal their changes, so it's left alone. For those -
+ * and for other ITileFields, which can't track changes - call {@link #invalidate(int, int, int, int)} (or
+ * {@link #invalidateAll()}) after editing tiles.
+ */
 @SuppressWarnings("serial")
 public class VectorPanel extends JPanel {
-	private static final Color OOB = new Color(0.4f, 0.4f, 0.4f);
+	private static final Color OOB = new Color(TileRaster.OOB_COLOR);
+	/** Blocks are this many tiles on a side */
+	private static final int BLOCK_SIZE = 32;
+	/** How many pixels' worth of block images to keep around, 32MiB */
+	public static final int MAX_CACHED_PIXELS = 8*1024*1024;
 	
-	private final VectorField<DungeonTile> dungeon;
+	private final ITileField dungeon;
+	/** The field to follow changes on while we're on screen, or null if the caller invalidates by hand */
+	private final VectorField<DungeonTile> followed;
+	/** True while we're the ones who turned on tracking for followed, and so get to drain it */
+	private boolean draining = false;
 	private int zoom;
+	private final int blocksAcross;
+	private final int blocksDown;
+	/** Rendered blocks by index, least recently drawn first */
+	private final LinkedHashMap<Integer, BufferedImage> blocks = new LinkedHashMap<>(16, 0.75f, true);
+	/** Full-sized block images freed up by eviction or invalidation, to be drawn over instead of reallocated */
+	private final ArrayList<BufferedImage> spares = new ArrayList<>();
+	private long cachedPixels = 0;
 	
 	public VectorPanel(VectorField<DungeonTile> dungeon, int zoom) {
+		this(dungeon, zoom, true);
+	}
+	
+	/**
+	 * @param followChanges true to pick up edits to the field by turning on its change tracking while the panel is
+	 *                      on screen, false to leave the field alone and invalidate by hand
+	 */
+	public VectorPanel(VectorField<DungeonTile> dungeon, int zoom, boolean followChanges) {
+		this(new DungeonTileField(dungeon), followChanges ? dungeon : null, zoom);
+	}
+	
+	public VectorPanel(ITileField dungeon, int zoom) {
+		this(dungeon, null, zoom);
+	}
+	
+	private VectorPanel(ITileField dungeon, VectorField<DungeonTile> followed, int zoom) {
 		super();
 		this.dungeon = dungeon;
+		this.followed = followed;
 		this.zoom = zoom;
 		
 		Dimension actualSize = new Dimension(dungeon.getWidth()*zoom, dungeon.getHeight()*zoom);
 		this.setMinimumSize(actualSize);
 		this.setPreferredSize(actualSize);
 		this.setMaximumSize(actualSize);
+		
+		blocksAcross = (dungeon.getWidth()+BLOCK_SIZE-1) / BLOCK_SIZE;
+		blocksDown = (dungeon.getHeight()+BLOCK_SIZE-1) / BLOCK_SIZE;
+	}
+	
+	/**
+	 * Marks a rectangle of tiles as changed, so that it's redrawn on the next paint.
+	 */
+	public void invalidate(int x, int y, int width, int height) {
+		int bx1 = Math.max(0, x / BLOCK_SIZE);
+		int by1 = Math.max(0, y / BLOCK_SIZE);
+		int bx2 = Math.min(blocksAcross-1, (x+width-1) / BLOCK_SIZE);
+		int by2 = Math.min(blocksDown-1, (y+height-1) / BLOCK_SIZE);
+		for(int by=by1; by<=by2; by++) {
+			for(int bx=bx1; bx<=bx2; bx++) {
+				release(blocks.remove(by*blocksAcross+bx));
+			}
+		}
+	}
+	
+	public void invalidateAll() {
+		for(BufferedImage image : blocks.values()) release(image);
+		blocks.clear();
+	}
+	
+	private void release(BufferedImage image) {
+		if (image==null) return;
+		cachedPixels -= image.getWidth()*image.getHeight();
+		//Edge blocks come in odd sizes, so only full-sized ones are worth keeping; a couple is plenty
+		if (image.getWidth()==BLOCK_SIZE*zoom && image.getHeight()==BLOCK_SIZE*zoom && spares.size()<4) spares.add(image);
+	}
+	
+	private BufferedImage getBlock(int bx, int by) {
+		int index = by*blocksAcross+bx;
+		BufferedImage image = blocks.get(index);
+		if (image!=null) return image;
+		
+		int tileX = bx*BLOCK_SIZE;
+		int tileY = by*BLOCK_SIZE;
+		int tilesW = Math.min(BLOCK_SIZE, dungeon.getWidth()-tileX);
+		int tilesH = Math.min(BLOCK_SIZE, dungeon.getHeight()-tileY);
+		if (tilesW==BLOCK_SIZE && tilesH==BLOCK_SIZE && !spares.isEmpty()) {
+			image = spares.remove(spares.size()-1);
+		} else {
+			image = new BufferedImage(tilesW*zoom, tilesH*zoom, BufferedImage.TYPE_INT_RGB);
+		}
+		int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		TileRaster.render(dungeon, tileX, tileY, tilesW, tilesH, zoom, pixels, image.getWidth(), -tileX*zoom, -tileY*zoom);
+		
+		blocks.put(index, image);
+		cachedPixels += image.getWidth()*image.getHeight();
+		Iterator<Map.Entry<Integer, BufferedImage>> oldest = blocks.entrySet().iterator();
+		while(cachedPixels>MAX_CACHED_PIXELS && blocks.size()>1) {
+			BufferedImage evicted = oldest.next().getValue();
+			oldest.remove();
+			release(evicted);
+		}
+		return image;
+	}
+	
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		if (followed!=null && !followed.isTrackingChanges()) {
+			followed.setChangeTracking(true);
+			draining = true;
+			invalidateAll(); //Whatever changed while we were off screen went unrecorded
+		}
+	}
+	
+	@Override
+	public void removeNotify() {
+		if (draining) {
+			followed.setChangeTracking(false);
+			draining = false;
+		}
+		super.removeNotify();
 	}
 	
 	@Override
 	public void paint(Graphics g) {
+		if (draining) followed.drainChanges((x, y) -> invalidate(x, y, 1, 1));
+		
+		Rectangle clip = g.getClipBounds();
+		if (clip==null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+		
+		//Anything outside the dungeon (if we've been stretched) is empty space
 		g.setColor(OOB);
-		g.fillRect(0, 0, this.getWidth(), this.getHeight());
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
 		
-		for(int y=0; y<dungeon.getHeight(); y++) {
-			for(int x=0; x<dungeon.getWidth(); x++) {
-				DungeonTile tile = dungeon.get(x, y);
-				//if (tile!=null) {
-				if (tile!=null && tile.type!=TileType.OOB) {
-					g.setColor(new Color(tile.type.color));
-					g.fillRect(x*zoom, y*zoom, zoom, zoom);
-					g.setColor(new Color(tile.type.color).darker());
-					if (!tile.exits().contains(Cardinal.WEST)) g.fillRect(x*zoom, y*zoom, 2, zoom);
-					if (!tile.exits().contains(Cardinal.EAST)) g.fillRect(x*zoom + zoom-2, y*zoom, 2, zoom);
-					if (!tile.exits().contains(Cardinal.NORTH)) g.fillRect(x*zoom, y*zoom, zoom, 2);
-					if (!tile.exits().contains(Cardinal.SOUTH)) g.fillRect(x*zoom, y*zoom + zoom-2, zoom, 2);
-					//g.drawRect(x*zoom, y*zoom, zoom-1, zoom-1);
-				}
+		Rectangle visible = clip.intersection(new Rectangle(0, 0, dungeon.getWidth()*zoom, dungeon.getHeight()*zoom));
+		if (visible.isEmpty()) return;
+		int blockPixels = BLOCK_SIZE*zoom;
+		int bx1 = visible.x / blockPixels;
+		int by1 = visible.y / blockPixels;
+		int bx2 = Math.min(blocksAcross-1, (visible.x+visible.width-1) / blockPixels);
+		int by2 = Math.min(blocksDown-1, (visible.y+visible.height-1) / blockPixels);
+		for(int by=by1; by<=by2; by++) {
+			for(int bx=bx1; bx<=bx2; bx++) {
+				g.drawImage(getBlock(bx, by), bx*blockPixels, by*blockPixels, null);
 			}
 		}
 	}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.elytradev.hallways;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DungeonFieldCodecTest {
+	private static final int HOLE_X = 20;
+	private static final int HOLE_Y = 21;
+	private static final int PALETTED_X = 30;
+	private static final int PALETTED_Y = 31;
+	private static final int UNPALETTED_X = 40;
+	private static final int UNPALETTED_Y = 41;
+	
+	@Test
+	public void rawRoundTrip() {
+		roundTrip(false, DungeonFieldCodec.ENCODING_RAW);
+	}
+	
+	@Test
+	public void runLengthRoundTrip() {
+		roundTrip(true, DungeonFieldCodec.ENCODING_RLE);
+	}
+	
+	private static void roundTrip(boolean runLengthEncode, byte encoding) {
+		VectorField<DungeonTile> field = dungeon();
+		
+		MapTagCompound tag = new MapTagCompound();
+		new DungeonFieldCodec(field, runLengthEncode).serialize(tag);
+		assertEquals(encoding, tag.getByte("Encoding"));
+		
+		VectorField<DungeonTile> read = DungeonFieldCodec.read(tag);
+		TileAssert.assertSameTiles("encoding "+encoding, new DungeonTileField(field), new DungeonTileField(read));
+		assertNull(read.get(0, 0));
+		assertNull(read.get(HOLE_X, HOLE_Y));
+		assertEquals("moss", read.get(PALETTED_X, PALETTED_Y).palette);
+		assertNull(read.get(UNPALETTED_X, UNPALETTED_Y).palette);
+	}
+	
+	@Test
+	public void deltaRoundTrip() {
+		VectorField<DungeonTile> sender = dungeon();
+		MapTagCompound full = new MapTagCompound();
+		new DungeonFieldCodec(sender).serialize(full);
+		DungeonFieldCodec receiver = new DungeonFieldCodec(DungeonFieldCodec.read(full));
+		
+		sender.setChangeTracking(true);
+		DungeonFieldCodec senderCodec = new DungeonFieldCodec(sender);
+		sender.put(PALETTED_X, PALETTED_Y, null); //Removed
+		DungeonTile added = new DungeonTile(TileType.DOOR);
+		added.setExitBits(Cardinal.EAST.bit());
+		added.palette = "brick";
+		sender.put(0, 0, added); //Added, with a palette the receiver hasn't seen yet
+		sender.getOrCreate(UNPALETTED_X, UNPALETTED_Y, DungeonTile::new).type = TileType.HALLWAY; //Edited in place
+		
+		MapTagCompound delta = new MapTagCompound();
+		senderCodec.serializeChanges(delta);
+		assertEquals(DungeonFieldCodec.ENCODING_DELTA, delta.getByte("Encoding"));
+		assertEquals("only the three changed tiles", 6, delta.getIntArray("Tiles").length);
+		
+		receiver.deserialize(delta);
+		VectorField<DungeonTile> received = receiver.getField();
+		TileAssert.assertSameTiles("after delta", new DungeonTileField(sender), new DungeonTileField(received));
+		assertNull(received.get(PALETTED_X, PALETTED_Y));
+		assertEquals("brick", received.get(0, 0).palette);
+		assertEquals(TileType.HALLWAY, received.get(UNPALETTED_X, UNPALETTED_Y).type);
+		
+		//Everything's synced now, so the next delta is empty and changes nothing
+		MapTagCompound empty = new MapTagCompound();
+		senderCodec.serializeChanges(empty);
+		assertEquals(0, empty.getIntArray("Tiles").length);
+		receiver.deserialize(empty);
+		TileAssert.assertSameTiles("after empty delta", new DungeonTileField(sender), new DungeonTileField(received));
+	}
+	
+	/**
+	 * A generated dungeon with a few known spots: an empty corner, a hole punched out of it, one tile with a
+	 * palette of its own and one with no palette at all.
+	 */
+	private static VectorField<DungeonTile> dungeon() {
+		VectorField<DungeonTile> field = new FieldGenerator().withSeed(8L).withPalettes("stone").generate(64);
+		assertNotNull(field);
+		field.put(0, 0, null);
+		field.put(HOLE_X, HOLE_Y, null);
+		DungeonTile paletted = new DungeonTile(TileType.ROOM);
+		paletted.setExitBits(Cardinal.NORTH.bit() | Cardinal.WEST.bit());
+		paletted.palette = "moss";
+		field.put(PALETTED_X, PALETTED_Y, paletted);
+		DungeonTile unpaletted = new DungeonTile(TileType.ROOM);
+		unpaletted.setExitBits(Cardinal.SOUTH.bit());
+		field.put(UNPALETTED_X, UNPALETTED_Y, unpaletted);
+		return field;
+	}
+}
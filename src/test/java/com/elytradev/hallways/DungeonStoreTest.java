@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.elytradev.hallways;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class DungeonStoreTest {
+	
+	/**
+	 * writeUTF's "modified UTF-8" encodes U+0000 and surrogate pairs differently from real UTF-8, so these only
+	 * survive if loading decodes them the same way saving encoded them.
+	 */
+	@Test
+	public void paletteNamesSurviveModifiedUTF8() throws IOException {
+		File directory = Files.createTempDirectory("hallways-store").toFile();
+		try {
+			DungeonStore store = new DungeonStore(directory);
+			GenerationSpec spec = new GenerationSpec(4L, 64).withPalettes("nul\u0000here", "smile\uD83D\uDE00");
+			PackedTileField generated = spec.configure(new FieldGenerator()).generatePacked(spec.getSize());
+			store.save(spec, generated);
+			
+			MappedTileField loaded = store.load(spec);
+			assertNotNull("stored spec didn't match itself", loaded);
+			for(int y=0; y<spec.getSize(); y++) {
+				for(int x=0; x<spec.getSize(); x++) {
+					assertEquals(generated.getType(x, y), loaded.getType(x, y));
+					assertEquals(generated.getExits(x, y), loaded.getExits(x, y));
+					assertEquals(generated.getPalette(x, y), loaded.getPalette(x, y));
+				}
+			}
+		} finally {
+			for(File file : directory.listFiles()) file.delete();
+			directory.delete();
+		}
+	}
+}
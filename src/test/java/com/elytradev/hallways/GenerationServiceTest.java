@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.elytradev.hallways;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class GenerationServiceTest {
+	
+	/**
+	 * A snapshot can't be cleared, so if one got into the pool, some later job for the same size would blow up.
+	 */
+	@Test
+	public void recyclingASnapshotIsIgnored() {
+		try (GenerationService service = new GenerationService(1, 4)) {
+			GenerationSpec spec = new GenerationSpec(1L, 64);
+			VectorField<DungeonTile> first = service.submit(spec).join();
+			VectorField<DungeonTile> snapshot = first.snapshot();
+			service.recycle(snapshot);
+			
+			VectorField<DungeonTile> second = service.submit(spec.withSeed(2L)).join();
+			assertNotNull(second);
+			assertNotSame(snapshot, second);
+			assertFalse(second.isReadOnly());
+		}
+	}
+	
+	@Test
+	public void recyclingTurnsOffChangeTracking() {
+		try (GenerationService service = new GenerationService(1, 4)) {
+			GenerationSpec spec = new GenerationSpec(1L, 64);
+			VectorField<DungeonTile> first = service.submit(spec).join();
+			first.setChangeTracking(true);
+			service.recycle(first);
+			
+			VectorField<DungeonTile> second = service.submit(spec.withSeed(2L)).join();
+			assertSame(first, second);
+			assertFalse(second.isTrackingChanges());
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Bare-bones HashMap-backed ITagCompound, standing in for the host's NBT implementation so that serialization
+ * can be tested and benchmarked outside the game.
+ */
+public class MapTagCompound implements ITagCompound {
+	private final HashMap<String, Object> values = new HashMap<>();
+	
+	public void clear() {
+		values.clear();
+	}
+	
+	private Number number(String key) {
+		Object o = values.get(key);
+		return (o instanceof Number) ? (Number)o : 0;
+	}
+	
+	@Override
+	public boolean containsKey(String key) { return values.containsKey(key); }
+	
+	@Override
+	public byte getByte(String key) { return number(key).byteValue(); }
+	@Override
+	public short getShort(String key) { return number(key).shortValue(); }
+	@Override
+	public int getInteger(String key) { return number(key).intValue(); }
+	@Override
+	public long getLong(String key) { return number(key).longValue(); }
+	@Override
+	public UUID getUUID(String key) { return (UUID)values.get(key); }
+	@Override
+	public boolean getBoolean(String key) { return Boolean.TRUE.equals(values.get(key)); }
+	@Override
+	public float getFloat(String key) { return number(key).floatValue(); }
+	@Override
+	public double getDouble(String key) { return number(key).doubleValue(); }
+	@Override
+	public String getString(String key) { return (String)values.get(key); }
+	@Override
+	public ITagCompound getTag(String key) { return (ITagCompound)values.get(key); }
+	@Override
+	public byte[] getByteArray(String key) { return (byte[])values.get(key); }
+	@Override
+	public int[] getIntArray(String key) { return (int[])values.get(key); }
+	@Override
+	public long[] getLongArray(String key) { return (long[])values.get(key); }
+	
+	@Override
+	public void setByte(String key, byte value) { values.put(key, value); }
+	@Override
+	public void setShort(String key, short value) { values.put(key, value); }
+	@Override
+	public void setInteger(String key, int value) { values.put(key, value); }
+	@Override
+	public void setLong(String key, long value) { values.put(key, value); }
+	@Override
+	public void setUUID(String key, UUID value) { values.put(key, value); }
+	@Override
+	public void setBoolean(String key, boolean value) { values.put(key, value); }
+	@Override
+	public void setFloat(String key, float value) { values.put(key, value); }
+	@Override
+	public void setDouble(String key, double value) { values.put(key, value); }
+	@Override
+	public void setString(String key, String value) { values.put(key, value); }
+	@Override
+	public void setByteArray(String key, byte[] value) { values.put(key, value); }
+	@Override
+	public void setIntArray(String key, int[] value) { values.put(key, value); }
+	@Override
+	public void setLongArray(String key, long[] value) { values.put(key, value); }
+}
@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.elytradev.hallways;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.elytradev.hallways.FieldGenerator.Placement;
+import com.elytradev.hallways.FieldGenerator.Routing;
+
+public class PlacementTest {
+	private static final long[] SEEDS = { 0L, 1L, 0x5EEDL };
+	private static final int[] SIZES = { 64, 257, 1024 };
+	
+	/**
+	 * PARALLEL only spreads CELL_SEEDED's cells across threads; which thread gets which cell mustn't show.
+	 */
+	@Test
+	public void parallelMatchesCellSeeded() {
+		for(Routing routing : Routing.values()) {
+			for(int size : SIZES) {
+				for(long seed : SEEDS) {
+					PackedTileField serial = generate(seed, size, Placement.CELL_SEEDED, routing);
+					PackedTileField parallel = generate(seed, size, Placement.PARALLEL, routing);
+					TileAssert.assertSameTiles("seed "+seed+", size "+size+", "+routing, serial, parallel);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Generators get pooled and reused, so leftovers from one dungeon mustn't leak into the next.
+	 */
+	@Test
+	public void reusedGeneratorMatchesFreshOne() {
+		for(Placement placement : Placement.values()) {
+			FieldGenerator reused = new FieldGenerator().withPlacement(placement);
+			reused.withSeed(99L).generatePacked(257); //Something different first, to leave scratch state behind
+			for(long seed : SEEDS) {
+				PackedTileField fresh = generate(seed, 257, placement, Routing.L_SHAPED);
+				PackedTileField again = reused.reset().withPlacement(placement).withSeed(seed).withRoomSize(3, 7).generatePacked(257);
+				TileAssert.assertSameTiles("seed "+seed+", "+placement, fresh, again);
+			}
+		}
+	}
+	
+	private static PackedTileField generate(long seed, int size, Placement placement, Routing routing) {
+		PackedTileField result = new FieldGenerator()
+				.withSeed(seed)
+				.withRoomSize(3, 7)
+				.withPlacement(placement)
+				.withRouting(routing)
+				.generatePacked(size);
+		assertNotNull(result);
+		return result;
+	}
+}
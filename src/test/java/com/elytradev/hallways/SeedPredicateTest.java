@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.elytradev.hallways;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SeedPredicateTest {
+	
+	/**
+	 * Some seeds still have rooms in separate groups after their first connection pass, and only get joined up by
+	 * later passes. Judging them on the first pass's componentsLeft would throw away perfectly good seeds.
+	 */
+	@Test
+	public void minReachableRoomsWaitsForConnectionToFinish() {
+		GenerationSpec spec = new GenerationSpec(0L, 128);
+		for(long seed=0; seed<50; seed++) {
+			GenerationStats[] firstPass = { null };
+			FieldGenerator generator = spec.withSeed(seed).configure(new FieldGenerator()).withListener(new GenerationListener() {
+				@Override
+				public boolean keepGoing(Phase phase, GenerationStats stats) {
+					if (phase==Phase.CONNECTION_PASS && firstPass[0]==null) firstPass[0] = stats.copy();
+					return true;
+				}
+			});
+			assertNotNull(generator.generatePacked(spec.getSize()));
+			if (firstPass[0].componentsLeft<=1 || generator.getStats().componentsLeft!=1) continue;
+			
+			//Found one that's rejected mid-connection by the final bound, but comes good in the end
+			SeedPredicate predicate = SeedPredicate.minReachableRooms(generator.getStats().rooms);
+			assertFalse(predicate.canStillMatch(GenerationListener.Phase.CONNECTION, firstPass[0]));
+			assertTrue(predicate.canStillMatch(GenerationListener.Phase.CONNECTION_PASS, firstPass[0]));
+			assertTrue("seed "+seed, new SeedScanner(spec, predicate).test(seed));
+			return;
+		}
+		fail("No seed in 0..49 needed more than one connection pass");
+	}
+	
+	@Test
+	public void minReachableRoomsMatchesPlainCheck() {
+		GenerationSpec spec = new GenerationSpec(0L, 128);
+		SeedScanner scanner = new SeedScanner(spec, SeedPredicate.minReachableRooms(256));
+		SeedScanner plain = new SeedScanner(spec, SeedPredicate.of(it -> it.getReachableRooms()>=256));
+		for(long seed=0; seed<50; seed++) {
+			assertEquals("seed "+seed, plain.test(seed), scanner.test(seed));
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.elytradev.hallways;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.elytradev.hallways.FieldGenerator.Placement;
+import com.elytradev.hallways.FieldGenerator.Routing;
+
+public class SteppedGenerationTest {
+	private static final long[] SEEDS = { 0L, 1L, 0x5EEDL };
+	private static final int[] SIZES = { 64, 257 };
+	/** From "one room at a time" up to "probably all of it" */
+	private static final long[] BUDGETS = { 0L, 20_000L, 2_000_000L };
+	
+	/**
+	 * However the work gets sliced, stepping has to land on exactly the dungeon a one-shot generate makes.
+	 */
+	@Test
+	public void steppedMatchesOneShot() {
+		for(Placement placement : Placement.values()) {
+			for(int size : SIZES) {
+				for(long seed : SEEDS) {
+					PackedTileField oneShot = configure(seed, placement, Routing.ASTAR).generatePacked(size);
+					assertNotNull(oneShot);
+					for(long budget : BUDGETS) {
+						PackedTileField stepped = new PackedTileField(size, size);
+						FieldGenerator generator = configure(seed, placement, Routing.ASTAR).start(stepped);
+						int steps = 0;
+						while(!generator.step(budget)) steps++;
+						assertEquals(FieldGenerator.Stage.DONE, generator.getStage());
+						assertFalse(generator.getStats().aborted);
+						if (budget==0L) assertTrue("a zero budget should still take several steps", steps>1);
+						TileAssert.assertSameTiles("seed "+seed+", size "+size+", "+placement+", budget "+budget, oneShot, stepped);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The VectorField and packed paths go through different storage, but it's the same generator underneath.
+	 */
+	@Test
+	public void vectorFieldMatchesPacked() {
+		for(Placement placement : Placement.values()) {
+			for(Routing routing : Routing.values()) {
+				for(int size : SIZES) {
+					for(long seed : SEEDS) {
+						VectorField<DungeonTile> objects = configure(seed, placement, routing).generate(size);
+						PackedTileField packed = configure(seed, placement, routing).generatePacked(size);
+						assertNotNull(objects);
+						assertNotNull(packed);
+						TileAssert.assertSameTiles("seed "+seed+", size "+size+", "+placement+", "+routing, packed, new DungeonTileField(objects));
+					}
+				}
+			}
+		}
+	}
+	
+	private static FieldGenerator configure(long seed, Placement placement, Routing routing) {
+		return new FieldGenerator()
+				.withSeed(seed)
+				.withRoomSize(3, 7)
+				.withPlacement(placement)
+				.withRouting(routing);
+	}
+}
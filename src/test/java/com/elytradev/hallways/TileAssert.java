@@ -0,0 +1,49 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Isaac Ellingson (Falkreon), Una Thompson (unascribed)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.elytradev.hallways;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tile-by-tile comparisons for tests, across any mix of storages.
+ */
+final class TileAssert {
+	private TileAssert() {}
+	
+	static void assertSameTiles(String message, ITileField expected, ITileField actual) {
+		assertEquals(message+": width", expected.getWidth(), actual.getWidth());
+		assertEquals(message+": height", expected.getHeight(), actual.getHeight());
+		for(int y=0; y<expected.getHeight(); y++) {
+			for(int x=0; x<expected.getWidth(); x++) {
+				String where = message+" at "+x+","+y;
+				assertEquals(where+": open", expected.isOpen(x, y), actual.isOpen(x, y));
+				if (!expected.isOpen(x, y)) continue;
+				assertEquals(where+": type", expected.getType(x, y), actual.getType(x, y));
+				assertEquals(where+": exits", expected.getExits(x, y), actual.getExits(x, y));
+				assertEquals(where+": palette", expected.getPalette(x, y), actual.getPalette(x, y));
+			}
+		}
+	}
+}